@@ -28,8 +28,10 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.logging.Level;
@@ -43,9 +45,12 @@ import javax.naming.NamingException;
 import javax.transaction.UserTransaction;
 import org.infinispan.api.BasicCache;
 import com.jboss.datagrid.chunchun.model.Post;
-import com.jboss.datagrid.chunchun.model.PostKey;
 import com.jboss.datagrid.chunchun.model.User;
 import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+import com.jboss.datagrid.chunchun.session.PostCoalescer;
+import com.jboss.datagrid.chunchun.util.Avatars;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
+import com.jboss.datagrid.chunchun.util.PostBatch;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
@@ -58,7 +63,7 @@ import javax.enterprise.inject.spi.BeanManager;
  *
  */
 public class InitializeCache implements SystemEventListener {
-   public  static final  String   VERSION                    = "1.0.19";
+   public  static final  String   VERSION                    = "1.0.27";
 
    private static final int       USER_COUNT                 = Integer.getInteger("chunchun.cache.init.users", 3000);
    private static final int       SEVEN_DAYS_IN_MILLISECONDS = 7 * 24 * 3600 * 1000;
@@ -72,15 +77,17 @@ public class InitializeCache implements SystemEventListener {
 
    @Override
    public void processEvent(SystemEvent event) throws AbortProcessingException {
-      provider = getContextualInstance(getBeanManagerFromJNDI(), CacheContainerProvider.class);
+      BeanManager beanManager = getBeanManagerFromJNDI();
+      provider = getContextualInstance(beanManager, CacheContainerProvider.class);
       if (! Boolean.getBoolean("chunchun.cache.init.skip")) startup();
+      // store posts logged but not stored before the last shutdown
+      getContextualInstance(beanManager, PostCoalescer.class).openLog();
    }
 
    public void startup() {
       log.info("Initializing chunchun cache with " + USER_COUNT + " users, each with " + POSTS + " initial posts and " + USER_WATCHES_COUNT + " user watches, version: " + VERSION);
 
       BasicCache<String, Object> users = provider.getCacheContainer().getCache("userCache");
-      BasicCache<PostKey, Object> posts = provider.getCacheContainer().getCache("postCache");
       BasicCache<String, Object> avatars = provider.getCacheContainer().getCache("avatarCache");
 
       // try to avoid re-initializing cache if it exists
@@ -94,8 +101,8 @@ public class InitializeCache implements SystemEventListener {
       try {
          // initialize avatars
          utx.begin();
-         avatars.put("user1.jpg", loadImageFromFile("images" + File.separator + "user1.jpg"));
-         avatars.put("nophoto.jpg", loadImageFromFile("images" + File.separator + "nophoto.jpg"));
+         String userImageHash = Avatars.store(avatars, "user1.jpg", loadImageFromFile("images" + File.separator + "user1.jpg"));
+         String noPhotoHash = Avatars.store(avatars, "nophoto.jpg", loadImageFromFile("images" + File.separator + "nophoto.jpg"));
          utx.commit();
 
          // create users
@@ -105,6 +112,7 @@ public class InitializeCache implements SystemEventListener {
             // if non-jpeg image needs to be used, make sure to tune a4j:mediaOutput mimeType, removing mimeType prop tested to work on FF18 and eclipse
             u = new User("user" + i, "Name" + i, "Surname" + i, "tmpPasswd",
                   "Description of person " + i, i % 2 == 1 ? "user1.jpg" : "nophoto.jpg");
+            u.setAvatarHash(i % 2 == 1 ? userImageHash : noPhotoHash);
 
             String encryptedPass = hashPassword("pass" + i);
             u.setPassword(encryptedPass);
@@ -115,14 +123,16 @@ public class InitializeCache implements SystemEventListener {
                 randomTimesSorted.add(getRandomTime());
             }
 
+            List<Post> userPosts = new ArrayList<Post>();
+
             for (int j = 1; j <= POSTS; j++) {
                long randomTime = randomTimesSorted.pollFirst();
                Post t = new Post(u.getUsername(), "Post number " + j + " for user "
                         + u.getName() + " at " + new Date(randomTime), randomTime);
-               // store the post in a cache
-               posts.put(t.getKey(), t);
-               u.getPosts().add(t.getKey());
+               userPosts.add(t);
             }
+            // store the posts in a cache, all at once
+            PostBatch.addPosts(provider, u, userPosts);
             // store the user in a cache
             users.put(u.getUsername(), u);
             utx.commit();
@@ -131,37 +141,35 @@ public class InitializeCache implements SystemEventListener {
          // GENERATE RANDOM WATCHERS AND WATCHING FOR EACH USER
          // USER_MUTUAL_WATCHES_PERCENT is only a target but can end up higher or lower
          // to remove possibilities of fluctuations in number of watching, then set USER_MUTUAL_WATCHES_PERCENT to 0
+         FollowGraph followGraph = new FollowGraph(provider);
          for (int i = 1; i <= USER_COUNT; i++) {
             utx.begin();
             int nonMutualWatching = 0;
-            User u = (User) users.get("user" + i);
-            while (u.getWatching().size() < USER_WATCHES_COUNT) {
+            String u = "user" + i;
+            int watchingCount = followGraph.getCounts(u).getFollowing();
+            while (watchingCount < USER_WATCHES_COUNT) {
                int id;
-               if (USER_WATCHES_COUNT - u.getWatching().size() < (USER_COUNT - i) / 3)
+               if (USER_WATCHES_COUNT - watchingCount < (USER_COUNT - i) / 3)
                   id = randomNumber.nextInt(USER_COUNT - i) + 1 + i; // do not return 0 and return only users with greater id
                else 
                   id = randomNumber.nextInt(USER_COUNT) + 1; // do not return 0;
-               User watching = (User) users.get("user" + id);
+               String watching = "user" + id;
 
-               if (  watching == null ||
-                     u.getUsername().equals(watching.getUsername()) ||
-                     u.getWatching().contains(watching.getUsername())
+               if (  id == i ||
+                     followGraph.isFollowing(u, watching)
                      ) continue;
 
-               if ((u.getWatching().size() - nonMutualWatching) * 100l < (long) USER_WATCHES_COUNT * USER_MUTUAL_WATCHES_PERCENT) {
-                  if (watching.getWatching().size() >= USER_WATCHES_COUNT) {
+               if ((watchingCount - nonMutualWatching) * 100l < (long) USER_WATCHES_COUNT * USER_MUTUAL_WATCHES_PERCENT) {
+                  if (followGraph.getCounts(watching).getFollowing() >= USER_WATCHES_COUNT) {
                      nonMutualWatching++;
                   } else {
                      // mutual watcher
-                     u.addFollower(watching.getUsername());
-                     watching.addFollowing(u.getUsername());
+                     followGraph.follow(watching, u);
                   }
                }
-               u.addFollowing(watching.getUsername());
-               watching.addFollower(u.getUsername());
-               users.replace(watching.getUsername(),watching);
+               followGraph.follow(u, watching);
+               watchingCount++;
             }
-            users.replace(u.getUsername(), u);
             utx.commit();
          }
 
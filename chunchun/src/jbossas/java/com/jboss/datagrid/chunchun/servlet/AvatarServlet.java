@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.servlet;
+
+import java.io.IOException;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+import com.jboss.datagrid.chunchun.util.Avatars;
+
+/**
+ * Serves avatars by their content addressed reference, <code>/avatar/size/hash/avatar</code>
+ * for a pre-resized variant or <code>/avatar/hash/avatar</code>. The hash (and size) is the ETag
+ * so a conditional request for it is answered with 304 without looking at the cache at all.
+ * Images matching the hash of their URL never change and browsers may keep them for a year,
+ * others (stale or not yet hashed references) have to be revalidated.
+ *
+ * @author Aleksandar Kostadinov
+ */
+@SuppressWarnings("serial")
+@WebServlet(urlPatterns={"/avatar/*"})
+public class AvatarServlet extends HttpServlet {
+
+   private static final int MAX_AGE = 365 * 24 * 3600;
+
+   private static final String IMMUTABLE = "public, max-age=" + MAX_AGE + ", immutable";
+
+   private BasicCache<String, byte[]> avatarCache;
+
+   @Override
+   public void init() throws ServletException {
+      CacheContainerProvider provider = getContextualInstance(getBeanManagerFromJNDI(), CacheContainerProvider.class);
+      avatarCache = provider.getCacheContainer().getCache("avatarCache");
+   }
+
+   @Override
+   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+      String path = request.getPathInfo();
+      String[] parts = path == null ? new String[0] : path.substring(1).split("/");
+      int size = 0;
+      try {
+         if (parts.length == 3) {
+            size = Integer.parseInt(parts[0]);
+         } else if (parts.length != 2) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+         }
+      } catch (NumberFormatException e) {
+         response.sendError(HttpServletResponse.SC_NOT_FOUND);
+         return;
+      }
+      String hash = parts[parts.length - 2];
+      String avatar = parts[parts.length - 1];
+      String ifNoneMatch = request.getHeader("If-None-Match");
+      boolean hashed = !hash.equals(Avatars.NO_HASH);
+
+      if (size > 0 && hashed) {
+         String variantKey = Avatars.variantKey(hash, size);
+         if (matches(ifNoneMatch, variantKey)) {
+            notModified(response, variantKey, IMMUTABLE);
+            return;
+         }
+         byte[] variant = avatarCache.get(variantKey);
+         if (variant != null) {
+            write(response, variant, "image/jpeg", variantKey, IMMUTABLE);
+            return;
+         }
+      } else if (size == 0 && hashed && matches(ifNoneMatch, hash)) {
+         notModified(response, hash, IMMUTABLE);
+         return;
+      }
+      // no such variant, serve what is stored under the avatar name
+      byte[] image = avatarCache.get(avatar);
+      if (image == null) {
+         response.sendError(HttpServletResponse.SC_NOT_FOUND);
+         return;
+      }
+      String actualHash = Avatars.hash(image);
+      String cacheControl = size == 0 && actualHash.equals(hash) ? IMMUTABLE : "no-cache";
+      if (matches(ifNoneMatch, actualHash)) {
+         notModified(response, actualHash, cacheControl);
+         return;
+      }
+      String contentType = getServletContext().getMimeType(avatar);
+      write(response, image, contentType == null ? "image/jpeg" : contentType, actualHash, cacheControl);
+   }
+
+   private static void write(HttpServletResponse response, byte[] image, String contentType, String etag, String cacheControl)
+         throws IOException {
+      response.setContentType(contentType);
+      response.setContentLength(image.length);
+      response.setHeader("ETag", '"' + etag + '"');
+      response.setHeader("Cache-Control", cacheControl);
+      response.getOutputStream().write(image);
+   }
+
+   private static void notModified(HttpServletResponse response, String etag, String cacheControl) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      response.setHeader("ETag", '"' + etag + '"');
+      response.setHeader("Cache-Control", cacheControl);
+   }
+
+   /*
+    * True if the If-None-Match header lists the given entity tag
+    */
+   private static boolean matches(String ifNoneMatch, String etag) {
+      return ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains('"' + etag + '"'));
+   }
+
+   private BeanManager getBeanManagerFromJNDI() {
+      InitialContext context;
+      Object result;
+      try {
+         context = new InitialContext();
+         result = context.lookup("java:comp/BeanManager");
+      } catch (NamingException e) {
+         throw new RuntimeException("BeanManager could not be found in JNDI", e);
+      }
+      return (BeanManager) result;
+   }
+
+   @SuppressWarnings("unchecked")
+   public <T> T getContextualInstance(final BeanManager manager, final Class<T> type) {
+      T result = null;
+      Bean<T> bean = (Bean<T>) manager.resolve(manager.getBeans(type));
+      if (bean != null) {
+         CreationalContext<T> context = manager.createCreationalContext(bean);
+         if (context != null) {
+            result = (T) manager.getReference(bean, type, context);
+         }
+      }
+      return result;
+   }
+}
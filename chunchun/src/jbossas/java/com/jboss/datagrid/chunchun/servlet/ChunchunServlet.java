@@ -1,17 +1,21 @@
 package com.jboss.datagrid.chunchun.servlet;
 
 import com.jboss.datagrid.chunchun.jsf.InitializeCache;
+import com.jboss.datagrid.chunchun.model.PostKey;
 import com.jboss.datagrid.chunchun.model.User;
 import com.jboss.datagrid.chunchun.session.Authenticator;
 import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
 import com.jboss.datagrid.chunchun.session.DisplayPost;
+import com.jboss.datagrid.chunchun.util.LatencyHistogram;
+import com.jboss.datagrid.chunchun.util.LoginSlots;
+import com.jboss.datagrid.chunchun.util.UserNearCache;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.spi.CreationalContext;
@@ -19,15 +23,15 @@ import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.infinispan.api.BasicCache;
-
 import com.jboss.datagrid.chunchun.session.PostBean;
 import com.jboss.datagrid.chunchun.session.UserBean;
+import com.jboss.datagrid.chunchun.util.UserStats;
 
 /**
  * A servlet that invokes application logic based on URL parameters. This is to
@@ -43,32 +47,75 @@ import com.jboss.datagrid.chunchun.session.UserBean;
 @WebServlet(urlPatterns={"/chunchunservlet"})
 public class ChunchunServlet extends HttpServlet {
 
-   private static Map<Integer, Boolean> userMap = new HashMap<Integer, Boolean>();   //registered occupied users
+   // logged in users of the servlet, user index is the slot
+   private static final LoginSlots userSlots = new LoginSlots(InitializeCache.getUserCount());
    private Logger                 log                        = Logger.getLogger(this.getClass().getName());
 
-   static {
-      for (int i = 1; i != InitializeCache.getUserCount(); i++) {
-         userMap.put(new Integer(i), false); //false == not currently in use == not logged in; true == logged in
+   private static int getNextAvailableUser() {
+      int index = userSlots.acquire();
+      if (index == LoginSlots.NONE) {
+         throw new RuntimeException("All users logged in - no available users.");
       }
+      return index;
    }
 
-   private static synchronized int getNextAvailableUser() {
-      int index = 1;
-      while (index != InitializeCache.getUserCount()) {
-         if (userMap.get(index).equals(false)) {
-            userMap.put(index, true);
-            return index;
-         }
-         index++;
+   private static void markUserAsLoggedOut(int index) {
+      userSlots.release(index);
+   }
+
+   /*
+    * Parses "postId:owner" continuation cursor, null if missing or malformed
+    */
+   private static PostKey parseCursor(String cursor) {
+      if (cursor == null) return null;
+      int separator = cursor.indexOf(':');
+      if (separator <= 0 || separator == cursor.length() - 1) return null;
+      try {
+         return PostKey.withId(cursor.substring(separator + 1), Long.parseLong(cursor.substring(0, separator)));
+      } catch (NumberFormatException e) {
+         return null;
       }
-      throw new RuntimeException("All users logged in - no available users.");
    }
 
-   private static synchronized void markUserAsLoggedOut(int index) {
-      userMap.put(index, false);
+   // latencies of the commands, also published through JMX
+   private final CommandMetrics metrics = new CommandMetrics();
+
+   // client proxies of the beans resolved once, they find the current session themselves
+   private Authenticator auth;
+   private PostBean postBean;
+   private UserBean userBean;
+   private CacheContainerProvider provider;
+
+   @Override
+   public void init() throws ServletException {
+      BeanManager manager = getBeanManagerFromJNDI();
+      auth = getContextualInstance(manager, Authenticator.class);
+      postBean = getContextualInstance(manager, PostBean.class);
+      userBean = getContextualInstance(manager, UserBean.class);
+      provider = getContextualInstance(manager, CacheContainerProvider.class);
+      metrics.register();
+   }
+
+   @Override
+   public void destroy() {
+      metrics.unregister();
    }
 
    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws javax.servlet.ServletException, IOException {
+      String command = request.getParameter("command");
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         processCommand(request, response);
+         failed = false;
+      } finally {
+         long took = System.nanoTime() - start;
+         metrics.record(command, took, failed);
+         if (log.isLoggable(Level.FINE)) log.fine("processing " + command + " took " + took / 1000 + " us");
+      }
+   }
+
+   private void processCommand(HttpServletRequest request, HttpServletResponse response) throws IOException {
       response.setHeader( "Pragma", "no-cache" );
       response.setHeader( "Cache-Control", "no-cache" );
       response.setDateHeader( "Expires", 0 );
@@ -83,7 +130,7 @@ public class ChunchunServlet extends HttpServlet {
          // do nothing, default value for displayLimitParam used
       }
 
-      StringBuilder answer = new StringBuilder();
+      CommandWriter answer = CommandWriter.create(request.getParameter("format"), response);
       Authenticator auth = getAuthenticator();
       PostBean postBean = getPostBean();
       UserBean userBean = getUserBean();
@@ -99,7 +146,7 @@ public class ChunchunServlet extends HttpServlet {
             auth.setUsername(username);
             auth.setPassword(password);
             auth.login();
-            answer.append("\n").append("User Logged in");
+            answer.message("User Logged in");
          }
 
       } else if ("logout".equals(command)) {
@@ -111,18 +158,36 @@ public class ChunchunServlet extends HttpServlet {
 
          ChunchunServlet.markUserAsLoggedOut(index);
          auth.logoutFromServlet();
-         answer.append("\n").append("User Logged out");
+         answer.message("User Logged out");
 
       } else if ("recentposts".equals(command)) {
 
          //http://localhost:8080/chunchun/chunchunservlet?command=recentposts     //limit defaults to 10
          //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&limit=20
+         //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&since=<newestPostId>     //only posts newer than the "Newest:" post id of an earlier call
+         //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&before=<postId>:<owner>     //next page after the "Next:" cursor, as printed there
 
          postBean.setDisplayedPostsLimit(displayLimitParam);
-         List<DisplayPost> recentPosts = postBean.getRecentPosts();
-         answer.append("\n").append("Displayed: " + postBean.getDisplayedPostsLimit()).append("\n");
+         List<DisplayPost> recentPosts;
+         PostKey before = parseCursor(request.getParameter("before"));
+         if (before != null) {
+            recentPosts = postBean.getRecentPostsBefore(before, displayLimitParam);
+         } else {
+            try {
+               recentPosts = postBean.getRecentPostsSince(Long.parseLong(request.getParameter("since")));
+            } catch (NumberFormatException e) {
+               recentPosts = postBean.getRecentPosts();
+            }
+         }
+         answer.field("displayed", "Displayed", postBean.getDisplayedPostsLimit());
+         answer.field("newest", "Newest", postBean.getNewestPostId());
+         if (!recentPosts.isEmpty()) {
+            DisplayPost last = recentPosts.get(recentPosts.size() - 1);
+            answer.field("next", "Next", last.getPostId() + ":" + last.getOwnerUsername());
+         }
+         answer.separator();
          for (DisplayPost post : recentPosts) {
-            answer.append("\n").append(post.getMessage());
+            answer.post(post);
          }
 
       } else if ("newpost".equals(command)) {
@@ -136,18 +201,27 @@ public class ChunchunServlet extends HttpServlet {
             // do nothing, default value for num used
          }
 
+         List<String> messages = new ArrayList<String>(num);
          for (int i=1; i<=num ; i++) {
-            postBean.setMessage("New message from master at " + startTime + ", number:" + i);
-            postBean.sendPost();
-            answer.append("\n").append("New post sent: " + postBean.getMessage());
+            messages.add("New message from master at " + startTime + ", number:" + i);
+         }
+         int sent = postBean.sendPosts(messages);
+         for (String message : messages.subList(0, sent)) {
+            answer.message("New post sent", message);
          }
       } else if ("myposts".equals(command)) {
 
-         //http://localhost:8080/chunchun/chunchunservlet?command=myposts
+         //http://localhost:8080/chunchun/chunchunservlet?command=myposts     //limit defaults to 10
+         //http://localhost:8080/chunchun/chunchunservlet?command=myposts&limit=20&before=<postId>:<owner>     //next page after the "Next:" cursor, as printed there
 
-         List<DisplayPost> myPosts = postBean.getMyPosts();
+         List<DisplayPost> myPosts = postBean.getUserPosts(auth.getUser(), parseCursor(request.getParameter("before")), displayLimitParam);
+         if (!myPosts.isEmpty()) {
+            DisplayPost last = myPosts.get(myPosts.size() - 1);
+            answer.field("next", "Next", last.getPostId() + ":" + last.getOwnerUsername());
+            answer.separator();
+         }
          for (DisplayPost post : myPosts) {
-            answer.append("\n").append(post.getMessage());
+            answer.post(post);
          }
 
       } else if ("watching".equals(command)) {
@@ -156,7 +230,7 @@ public class ChunchunServlet extends HttpServlet {
 
          List<User> watchedByMe = userBean.getWatching();
          for (User user : watchedByMe) {
-            answer.append("\n").append(user.getName() + " (" + user.getWhoami() + ")");
+            answer.user(user);
          }
 
       } else if ("watchers".equals(command)) {
@@ -165,7 +239,7 @@ public class ChunchunServlet extends HttpServlet {
 
          List<User> watchers = userBean.getWatchers();
          for (User user : watchers) {
-            answer.append("\n").append(user.getName() + " (" + user.getWhoami() + ")");
+            answer.user(user);
          }
 
       } else if ("watchuser".equals(command)) { //watch user according to userParam parameter
@@ -177,9 +251,9 @@ public class ChunchunServlet extends HttpServlet {
             if (u.getName().equals(userParam)) {
                if (!userBean.isWatchedByMe(u) && !userBean.isMe(u)) {
                   userBean.watchUser(u);
-                  answer.append("\n").append("Started watching user " + u.getName());
+                  answer.message("Started watching user " + u.getName());
                }  else {
-                  answer.append("\n").append("NoOP - I'm already watching that user");
+                  answer.message("NoOP - I'm already watching that user");
                }
             }
          }
@@ -198,91 +272,71 @@ public class ChunchunServlet extends HttpServlet {
 
          //http://localhost:8080/chunchun/chunchunservlet?command=userstats
          SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy kk:mm:ss");
-         answer.append("Output version: 1.0.15" + " at: " + sdf. format(Calendar.getInstance().getTime()) + System.lineSeparator());
-
-         boolean detailed = false;
-         if ("detailed".equals(request.getParameter("mode"))) detailed = true; 
-         
-         int moreWatches = 0;
-         int lessWatches = 0;
-         int moreMutualWatches = 0;
-         int lessMutualWatches = 0;
-         int watchSelf = 0;
-
-         for (int index = 1; index <= InitializeCache.getUserCount(); index++) {
-            String curUser = "user" + index;
-            User uCurUser = (User) getUserCache().get(curUser);
-            List<String> watching = uCurUser.getWatching();
-            if (watching.size() > InitializeCache.getUserWatchesCount()) {
-               moreWatches++;
-            } else if (watching.size() < InitializeCache.getUserWatchesCount()) {
-               lessWatches++;
-            }
-
-            if (watching.contains(curUser)) watchSelf++;
-
-            int mutualWatches = 0;
-            for (String user: watching) {
-               if (getUserCache().get(user).getWatching().contains(curUser)) {
-                  mutualWatches++;
-               }
-            }
-            final long mutualWatchesAnticipated = (long) InitializeCache.getUserMutualWatchesPercent() * InitializeCache.getUserWatchesCount();
-            if (mutualWatches * 100l < mutualWatchesAnticipated) {
-               lessMutualWatches++;
-            } else if (mutualWatches * 100l - 1l >= mutualWatchesAnticipated) {
-               moreMutualWatches++;
-            }
-            if (detailed) answer.append("\n").append(curUser + " posts: " + uCurUser.getPosts().size() + ", mutual watched: " + mutualWatches);
+         answer.heading("version", "Output version", "1.0.15 at: " + sdf.format(Calendar.getInstance().getTime()));
+
+         final boolean detailed = "detailed".equals(request.getParameter("mode"));
+         final CommandWriter partAnswer = answer;
+         UserStats stats = UserStats.collect(getCacheProvider(), InitializeCache.getUserCount(),
+               InitializeCache.getUserWatchesCount(), InitializeCache.getUserMutualWatchesPercent(), detailed,
+               new UserStats.PartitionListener() {
+                  public void partitionDone(UserStats partition) {
+                     if (detailed) {
+                        for (int i = 0; i < partition.getUsernames().size(); i++) {
+                           partAnswer.userStats(partition.getUsernames().get(i), partition.getPostCounts().get(i),
+                                 partition.getMutualWatches().get(i));
+                        }
+                     }
+                     partAnswer.flush();
+                  }
+               });
+
+         answer.field("totalUsers", "Total users", InitializeCache.getUserCount());
+         answer.field("anticipatedWatches", "Anticipated user watches", InitializeCache.getUserWatchesCount());
+         answer.field("targetMutualWatchesPercent", "User target mutual watches percent", InitializeCache.getUserMutualWatchesPercent() + "%");
+         answer.field("targetMutualWatchesX100", "User target mutual watches (x100)", (long) InitializeCache.getUserMutualWatchesPercent() * InitializeCache.getUserWatchesCount());
+         answer.field("lessWatches", "Users with less watched users than anticipated", stats.getLessWatches());
+         answer.field("moreWatches", "Users with more watched users than anticipated", stats.getMoreWatches());
+         answer.field("lessMutualWatches", "Users with less mutual watched than anticipated", stats.getLessMutualWatches());
+         answer.field("moreMutualWatches", "Users with more mutual watched than anticipated", stats.getMoreMutualWatches());
+         answer.field("watchSelf", "Users watching themeslves", stats.getWatchSelf());
+      } else if ("metrics".equals(command)) {
+
+         //http://localhost:8080/chunchun/chunchunservlet?command=metrics     //latencies in microseconds
+         //http://localhost:8080/chunchun/chunchunservlet?command=metrics&reset=true     //starts over after reporting, e.g. between load test runs
+
+         for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            answer.latency(entry.getKey(), entry.getValue());
          }
-
-         answer.append("\n").append("Total users: " + InitializeCache.getUserCount());
-         answer.append("\n").append("Anticipated user watches: " + InitializeCache.getUserWatchesCount());
-         answer.append("\n").append("User target mutual watches percent: " + InitializeCache.getUserMutualWatchesPercent() + "%");
-         answer.append("\n").append("User target mutual watches (x100): " + (long) InitializeCache.getUserMutualWatchesPercent() * InitializeCache.getUserWatchesCount());
-         answer.append("\n").append("Users with less watched users than anticipated: " + lessWatches);
-         answer.append("\n").append("Users with more watched users than anticipated: " + moreWatches);
-         answer.append("\n").append("Users with less mutual watched than anticipated: " + lessMutualWatches);
-         answer.append("\n").append("Users with more mutual watched than anticipated: " + moreMutualWatches);
-         answer.append("\n").append("Users watching themeslves: " + watchSelf);
+         UserNearCache nearCache = getCacheProvider().getUserNearCache();
+         if (nearCache != null) {
+            answer.field("userNearCacheHits", "User near cache hits", nearCache.getHits());
+            answer.field("userNearCacheMisses", "User near cache misses", nearCache.getMisses());
+            answer.field("userNearCacheHitRateX100", "User near cache hit rate (x100)", Math.round(nearCache.getHitRate() * 100));
+         }
+         if ("true".equals(request.getParameter("reset"))) metrics.reset();
       } else {
-         answer.append("\n").append("Unknown command");
+         answer.message("Unknown command");
       }
 
-      long finishedTime = System.currentTimeMillis();
-      log.info("processing " + command + " took " + (finishedTime - startTime) + "msec");
-//      if( answer.toString().length() != 0) {
-//         response.setHeader("answer", answer.toString());
-//      }
-      PrintWriter out = response.getWriter();
-      out.print(answer.toString());
-      out.flush();
+      answer.finish();
    }
 
    private Authenticator getAuthenticator() {
-      Authenticator auth = getContextualInstance(getBeanManagerFromJNDI(), Authenticator.class);
       return auth;
    }
 
    private PostBean getPostBean() {
-      PostBean postBean = getContextualInstance(getBeanManagerFromJNDI(), PostBean.class);
       return postBean;
    }
 
    private UserBean getUserBean() {
-      UserBean userBean = getContextualInstance(getBeanManagerFromJNDI(), UserBean.class);
       return userBean;
    }
 
    private CacheContainerProvider getCacheProvider() {
-      CacheContainerProvider provider = getContextualInstance(getBeanManagerFromJNDI(), CacheContainerProvider.class);
       return provider;
    }
 
-   private BasicCache<String, User> getUserCache() {
-      return getCacheProvider().getCacheContainer().getCache("userCache");
-   }
-
    private BeanManager getBeanManagerFromJNDI() {
       InitialContext context;
       Object result;
@@ -22,11 +22,16 @@
 package com.jboss.datagrid.chunchun.session;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+
+import org.infinispan.Cache;
+import org.infinispan.api.BasicCache;
 import org.infinispan.api.BasicCacheContainer;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.Configuration;
@@ -39,6 +44,11 @@ import org.infinispan.transaction.TransactionMode;
 import org.infinispan.transaction.lookup.GenericTransactionManagerLookup;
 import org.infinispan.util.concurrent.IsolationLevel;
 
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.BatchCacheReader;
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+import com.jboss.datagrid.chunchun.util.UserNearCache;
+
 /**
  * Provides a pre-configured cache container to other classes in the application.
  * 
@@ -48,7 +58,16 @@ import org.infinispan.util.concurrent.IsolationLevel;
 @ApplicationScoped
 public class JBossASCacheContainerProvider implements CacheContainerProvider {
 
+   // number of parallel lookups of a single batched read
+   private static final int BATCH_READ_PARALLELISM = Integer.getInteger("chunchun.cache.batch.parallelism", 16);
+
+   // users kept on this node, 0 disables the near cache
+   private static final int USER_NEAR_CACHE_SIZE = Integer.getInteger("chunchun.user.nearcache.size", 10000);
+   // bounds how long a user changed through another node may be served stale
+   private static final int USER_NEAR_CACHE_LIFESPAN = Integer.getInteger("chunchun.user.nearcache.lifespan", 30 * 1000);
+
    private BasicCacheContainer manager;
+   private volatile UserNearCache userNearCache;
    private Logger log = Logger.getLogger(this.getClass().getName());
 
    public BasicCacheContainer getCacheContainer() {
@@ -56,8 +75,10 @@ public class JBossASCacheContainerProvider implements CacheContainerProvider {
          String cacheConfig = System.getProperty("chunchun.cache.config","");
          if (cacheConfig.equals("") || cacheConfig.equals("dummy")) {
             log.log(Level.INFO, "Setting up simple local memory only cache.");
-            GlobalConfiguration glob = new GlobalConfigurationBuilder().nonClusteredDefault()
-                  .globalJmxStatistics().enable().jmxDomain("chunchun").build();
+            GlobalConfigurationBuilder globBuilder = new GlobalConfigurationBuilder().nonClusteredDefault();
+            globBuilder.globalJmxStatistics().enable().jmxDomain("chunchun");
+            ChunchunExternalizers.register(globBuilder.serialization());
+            GlobalConfiguration glob = globBuilder.build();
             Configuration loc = new ConfigurationBuilder().jmxStatistics().enable().clustering()
                   .cacheMode(CacheMode.LOCAL).transaction()
                   .useSynchronization(true)
@@ -80,8 +101,45 @@ public class JBossASCacheContainerProvider implements CacheContainerProvider {
       return manager;
    }
 
+   public <K, V> Map<K, V> getAll(BasicCache<K, V> cache, Collection<? extends K> keys) {
+      return BatchCacheReader.getAll(cache, keys, BATCH_READ_PARALLELISM);
+   }
+
+   public User getUser(String username) {
+      UserNearCache nearCache = getUserNearCache();
+      if (nearCache == null) {
+         return (User) getCacheContainer().getCache("userCache").get(username);
+      }
+      return nearCache.get(username);
+   }
+
+   /*
+    * Created on first use, null if disabled or the user cache can't be listened to
+    */
+   public UserNearCache getUserNearCache() {
+      if (userNearCache == null && USER_NEAR_CACHE_SIZE > 0) {
+         synchronized (this) {
+            if (userNearCache == null) {
+               Object userCache = getCacheContainer().getCache("userCache");
+               if (userCache instanceof Cache) {
+                  @SuppressWarnings("unchecked")
+                  Cache<String, Object> cache = (Cache<String, Object>) userCache;
+                  userNearCache = new UserNearCache(cache, USER_NEAR_CACHE_SIZE, USER_NEAR_CACHE_LIFESPAN);
+               }
+            }
+         }
+      }
+      return userNearCache;
+   }
+
    @PreDestroy
    public void cleanUp() {
+      if (userNearCache != null) {
+         log.info("user near cache hit rate: " + Math.round(userNearCache.getHitRate() * 100) + "% of "
+               + (userNearCache.getHits() + userNearCache.getMisses()) + " lookups");
+         userNearCache.stop();
+         userNearCache = null;
+      }
       manager.stop();
       manager = null;
    }
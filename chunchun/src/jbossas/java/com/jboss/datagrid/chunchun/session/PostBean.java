@@ -22,14 +22,13 @@
 package com.jboss.datagrid.chunchun.session;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.NavigableSet;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,10 +43,17 @@ import org.infinispan.api.BasicCache;
 // import org.infinispan.DecoratedCache;
 // import org.infinispan.context.Flag;
 
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
 import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
 import com.jboss.datagrid.chunchun.model.User;
-import com.jboss.datagrid.chunchun.util.PostKeyTimeComparator;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
+import com.jboss.datagrid.chunchun.util.PostBatch;
+import com.jboss.datagrid.chunchun.util.PostIds;
+import com.jboss.datagrid.chunchun.util.PostKeyMerger;
+import com.jboss.datagrid.chunchun.util.UserPostIndex;
 import com.jboss.datagrid.chunchun.util.UserPostKeyIterator;
+import com.jboss.datagrid.chunchun.util.WatchedPostsTask;
 
 /**
  * Handles post operations (sending posts, listing recent posts from all watched people,
@@ -65,11 +71,20 @@ public class PostBean implements Serializable {
    private static final int INITIAL_SHOWED_POSTS = 10;
    private int showedPosts = INITIAL_SHOWED_POSTS;
    private static final int INCREASE_SHOWED_BY = 10; //increase showedPosts by
+   private static final int TIMELINE_SIZE = Integer.getInteger("chunchun.timeline.size", 100);
+   // posts are stamped before their transaction commits, a rebuild looks this far back for ones it missed
+   private static final int SEND_DURATION = 1000;
+   private static final int MY_POSTS_PAGE_SIZE = 8;
+   private static final int WATCHED_USER_POSTS_PAGE_SIZE = 10;
 
    private String message;
 
    LinkedList<DisplayPost> recentPosts = new LinkedList<DisplayPost>();
    transient private HashMap<PostKey, DisplayPost> recentPostsCache = new HashMap<PostKey, DisplayPost>();
+   private long newestPostId; // high-water mark of recentPosts, only newer posts are fetched on refresh
+
+   private PostsPager myPostsPager = new PostsPager();
+   private PostsPager watchedUserPostsPager = new PostsPager();
 
    @Inject
    private Instance<Authenticator> auth;
@@ -80,40 +95,90 @@ public class PostBean implements Serializable {
    @Inject
    private CacheContainerProvider provider;
 
+   @Inject
+   private DisplayPostCache displayPostCache;
+
+   @Inject
+   private RequestMemo memo;
+
+   @Inject
+   private PostCoalescer coalescer;
+
    @Inject
    private UserTransaction utx;
 
    private Logger log = Logger.getLogger(this.getClass().getName());
 
    public String sendPost() {
-      Post t = new Post(auth.get().getUsername(), message);
+      sendPosts(Collections.singletonList(message));
+      return null;
+   }
+
+   /*
+    * Sends the messages in batches of chunchun.post.batch.size, each batch in one transaction
+    * with a single update of the user. Returns the number of messages sent before any failure.
+    */
+   public int sendPosts(List<String> messages) {
+      int sent = 0;
       try {
-         utx.begin();
-         User u = auth.get().getUser();
-         getPostCache().put(t.getKey(), t);
-         u.getPosts().add(t.getKey());
-         getUserCache().replace(auth.get().getUsername(), u);
-         utx.commit();
+         for (List<String> batch : PostBatch.split(messages)) {
+            if (coalescer.isEnabled()) {
+               // committed together with posts of other sessions
+               coalescer.send(auth.get().getUsername(), batch);
+               sent += batch.size();
+               continue;
+            }
+            utx.begin();
+            // changed below, the stored instance must stay as it is should the transaction fail
+            User u = ((User) getUserCache().get(auth.get().getUsername())).copy();
+            List<Post> posts = new ArrayList<Post>(batch.size());
+            for (String text : batch) {
+               Post t = new Post(u.getUsername(), text);
+               t.setOwnerName(u.getName());
+               posts.add(t);
+            }
+            PostBatch.addPosts(provider, u, posts);
+            getUserCache().replace(u.getUsername(), u);
+            utx.commit();
+            sent += batch.size();
+         }
       } catch (Exception e) {
+         log.log(Level.SEVERE, "failed to send messages, " + sent + " of " + messages.size() + " sent", e);
          if (utx != null) {
             try {
                utx.rollback();
             } catch (Exception e1) {
             }
          }
+      } finally {
+         // the user and the timeline changed, don't serve the memoized ones for the rest of request
+         memo.invalidateUser();
+         memo.invalidateRecentPosts();
       }
-      return null;
+      return sent;
    }
 
    public void deletePost(DisplayPost post) {
       PostKey key;
+      if (coalescer.isEnabled()) {
+         // not to be replayed from the post log should it still be there
+         coalescer.deleted(PostKey.withId(auth.get().getUsername(), post.getPostId()));
+      }
       try {
          utx.begin();
-         User u = auth.get().getUser();
-         key = new PostKey(u.getUsername(), post.getTimeOfPost());
+         // changed below, the stored instance must stay as it is should the transaction fail
+         User u = ((User) getUserCache().get(auth.get().getUsername())).copy();
+         key = PostKey.withId(u.getUsername(), post.getPostId());
          getPostCache().remove(key); // TODO add flags new DecoratedCache(getPostCache(), Flag.SKIP_REMOTE_LOOKUP, Flag.SKIP_CACHE_LOAD);
-         u.getPosts().remove(key);
+         displayPostCache.remove(key);
+         UserPostIndex.removePost(u, key, getPostIndexCache());
          getUserCache().replace(auth.get().getUsername(), u);
+         for (String watcher : new FollowGraph(provider).getFollowers(u.getUsername())) {
+            Timeline timeline = (Timeline) getTimelineCache().get(watcher);
+            if (timeline != null && (timeline = timeline.copy()).remove(key)) {
+               getTimelineCache().put(watcher, timeline);
+            }
+         }
          utx.commit();
       } catch (Exception e) {
          if (utx != null) {
@@ -124,13 +189,23 @@ public class PostBean implements Serializable {
             }
          }
          throw new RuntimeException("failed to remove message: " + auth.get().getUsername() + " " + post.getTimeOfPost(), e);
+      } finally {
+         memo.invalidateUser();
+         memo.invalidateRecentPosts();
       }
    }
 
+   /*
+    * Called several times while rendering a page, loaded at most once per request
+    */
    public List<DisplayPost> getRecentPosts() {
+      if (memo.isRecentPostsLoaded(showedPosts)) {
+         return recentPosts;
+      }
       if (recentPosts.size() < showedPosts) {
           reloadPosts(showedPosts);
       }
+      memo.setRecentPostsLoaded(showedPosts);
       return recentPosts;
    }
 
@@ -139,71 +214,251 @@ public class PostBean implements Serializable {
     * 
     */
    private void reloadPosts(int limit) {
-      NavigableSet<PostKey> candidatePosts = new TreeSet<PostKey>(PostKeyTimeComparator.getInstance());
-      HashMap<String, User> following = new HashMap<String, User>();
-      // get a descending post iterator for each user
-      Set<Iterator<PostKey>> followingPostsIterators = new HashSet<Iterator<PostKey>>();
-      for (String username: auth.get().getUser().getWatching()) {
-         User user = (User) getUserCache().get(username);
-         following.put(username, user);
-         followingPostsIterators.add(new UserPostKeyIterator(user, provider));
+      String username = auth.get().getUsername();
+      Timeline timeline = (Timeline) getTimelineCache().get(username);
+      List<PostKey> postKeys;
+      if (timeline != null && timeline.canServe(limit)) {
+         postKeys = timeline.getNewest(limit);
+      } else {
+         // (re)build the timeline, load at least as many posts as the timeline can hold
+         int loadLimit = Math.max(limit, TIMELINE_SIZE);
+         long rebuildStart = System.currentTimeMillis() - SEND_DURATION;
+         postKeys = loadWatchedPosts(loadLimit);
+         storeTimeline(username, new Timeline(TIMELINE_SIZE, postKeys, postKeys.size() >= loadLimit), rebuildStart);
+         if (postKeys.size() > limit) postKeys = postKeys.subList(0, limit);
       }
-      // avoid NoSuchElementException in next loop condition
-      candidatePosts.add(new PostKey("dummy non existing username",0));
-      // check each user for recent enough post /that fit into limit of posts/, lookup in one day long intervals
-      long minAge = System.currentTimeMillis();
-      do {
-         minAge = minAge - (1000 * 60 * 60 * 24);
-         Iterator<Iterator<PostKey>> followingPostsIteratorsIterator = followingPostsIterators.iterator();
-         while (followingPostsIteratorsIterator.hasNext()) {
-            Iterator<PostKey> postIterator = followingPostsIteratorsIterator.next();
-            PostKey postKey;
-            boolean hasMorePosts;
-            while ( (hasMorePosts = postIterator.hasNext()) && ( !candidatePosts.first().getOwner().equals(postKey = postIterator.next() ) || candidatePosts.size() < limit) ) {
-               if (candidatePosts.size() < limit) {
-                  candidatePosts.add(postKey);
-               } else if (postKey.getTimeOfPost() > candidatePosts.first().getTimeOfPost()) {
-                  candidatePosts.pollFirst();
-                  candidatePosts.add(postKey);
-               } else {
-                  break;
-               }
-               if (postKey.getTimeOfPost() < minAge) break;
-            }
-            if (!hasMorePosts) followingPostsIteratorsIterator.remove();
-         }
-      } while (candidatePosts.size() < limit && followingPostsIterators.size() > 0);
-      followingPostsIterators = null; // lets be memory friendly
-      // remove artificial first element in the case there are not enough real posts to fill limit
-      if (candidatePosts.first().getTimeOfPost() == 0) candidatePosts.pollFirst();
-      // we have the postKey of all possible posts within the limit, handle them
+      // reuse the already displayed posts, the rest is loaded at once
       HashMap<PostKey, DisplayPost> newPostsCache = new HashMap<PostKey, DisplayPost>();
-      Iterator<PostKey> postsToDisplayIterator = candidatePosts.descendingIterator();
+      List<DisplayPost> posts = toDisplayPosts(postKeys, newPostsCache);
       recentPosts.clear();
-      while (postsToDisplayIterator.hasNext()) {
-         PostKey postKey = postsToDisplayIterator.next();
+      recentPosts.addAll(posts);
+      recentPostsCache = newPostsCache;
+      newestPostId = recentPosts.isEmpty() ? 0 : recentPosts.getFirst().getPostId();
+   }
+
+   /*
+    * Put posts newer than what is displayed on top of recentPosts keeping the already built ones
+    */
+   public void refreshRecentPosts() {
+      if (recentPosts.isEmpty()) {
+         reloadPosts(showedPosts);
+         return;
+      }
+      String username = auth.get().getUsername();
+      Timeline timeline = (Timeline) getTimelineCache().get(username);
+      List<PostKey> candidateKeys;
+      if (timeline != null && timeline.canServe(showedPosts)) {
+         candidateKeys = timeline.getNewest(showedPosts);
+      } else {
+         candidateKeys = loadWatchedPosts(showedPosts, PostIds.timeOf(newestPostId));
+      }
+      // compared on ids, posts of the same millisecond are told apart, posts of the same id and
+      // another owner may have been displayed already
+      List<PostKey> newKeys = new ArrayList<PostKey>();
+      for (PostKey postKey : candidateKeys) {
+         if (postKey.getId() < newestPostId) break;
+         if (!recentPostsCache.containsKey(postKey)) newKeys.add(postKey);
+      }
+      if (newKeys.isEmpty()) {
+         return;
+      }
+      recentPosts.addAll(0, toDisplayPosts(newKeys, recentPostsCache));
+      while (recentPosts.size() > showedPosts) {
+         DisplayPost dropped = recentPosts.removeLast();
+         recentPostsCache.remove(dropped.getKey());
+      }
+      newestPostId = recentPosts.getFirst().getPostId();
+   }
+
+   /*
+    * Builds display posts for the given keys in the same order, ones built by this session or
+    * shared by others are reused and the rest is loaded at once. All of them are put into
+    * <code>built</code>. Posts removed in the meanwhile are left out.
+    */
+   private List<DisplayPost> toDisplayPosts(List<PostKey> postKeys, HashMap<PostKey, DisplayPost> built) {
+      List<PostKey> notBuilt = new ArrayList<PostKey>();
+      for (PostKey postKey : postKeys) {
+         if (!recentPostsCache.containsKey(postKey)) notBuilt.add(postKey);
+      }
+      Map<PostKey, DisplayPost> shared = displayPostCache.getAll(notBuilt);
+      List<PostKey> notShared = new ArrayList<PostKey>();
+      for (PostKey postKey : notBuilt) {
+         if (!shared.containsKey(postKey)) notShared.add(postKey);
+      }
+      Map<PostKey, Object> rawPosts = provider.getAll(getPostCache(), notShared);
+      HashMap<String, User> owners = new HashMap<String, User>();
+      List<DisplayPost> posts = new ArrayList<DisplayPost>(postKeys.size());
+      for (PostKey postKey : postKeys) {
          DisplayPost post;
          Post rawPost;
-         if ((post = recentPostsCache.get(postKey)) != null) {
-            recentPosts.add(post);
-            newPostsCache.put(postKey, post);
-         } else if ((rawPost = (Post) getPostCache().get(postKey)) != null) {
-            post = new DisplayPost(following.get(postKey.getOwner()).getName(), postKey.getOwner(), rawPost.getMessage(), postKey.getTimeOfPost());
-            recentPosts.add(post);
-            newPostsCache.put(postKey, post);
-         } else {
-            // post might have been removed in the meanwhile so we just ignore
+         if ((post = recentPostsCache.get(postKey)) == null && (post = shared.get(postKey)) == null
+               && (rawPost = (Post) rawPosts.get(postKey)) != null) {
+            User owner = getOwner(rawPost.getOwner(), owners);
+            String name = rawPost.getOwnerName() != null ? rawPost.getOwnerName() : owner.getName();
+            post = new DisplayPost(name, postKey, rawPost.getMessage(), owner.getAvatarReference());
+            displayPostCache.put(postKey, post);
+         }
+         if (post != null) {
+            posts.add(post);
+            built.put(postKey, post);
          }
       }
-      recentPostsCache = newPostsCache;
+      return posts;
+   }
+
+   /*
+    * Returns the page of <code>limit</code> posts older than the <code>before</code> cursor,
+    * only that page is looked up no matter how many pages were read before
+    */
+   public List<DisplayPost> getRecentPostsBefore(PostKey before, int limit) {
+      return toDisplayPosts(loadPostKeysBefore(before, limit), new HashMap<PostKey, DisplayPost>());
+   }
+
+   private List<PostKey> loadPostKeysBefore(PostKey before, int limit) {
+      Timeline timeline = (Timeline) getTimelineCache().get(auth.get().getUsername());
+      List<PostKey> postKeys = null;
+      if (timeline != null) {
+         postKeys = timeline.getOlder(before, limit);
+         if (postKeys.size() < limit && timeline.isTruncated()) postKeys = null;
+      }
+      if (postKeys == null) {
+         postKeys = loadWatchedPostsBefore(before, limit);
+      }
+      return postKeys;
+   }
+
+   /*
+    * Refreshes recent posts and returns the ones with ids greater than <code>since</code>, the
+    * newest post id of an earlier call
+    */
+   public List<DisplayPost> getRecentPostsSince(long since) {
+      if (recentPosts.size() < showedPosts) {
+         reloadPosts(showedPosts);
+      } else {
+         refreshRecentPosts();
+      }
+      List<DisplayPost> newer = new LinkedList<DisplayPost>();
+      for (DisplayPost post : recentPosts) {
+         if (post.getPostId() <= since) break;
+         newer.add(post);
+      }
+      return newer;
+   }
+
+   public long getNewestPostId() {
+      return newestPostId;
+   }
+
+   /*
+    * Merge posts of all watched users, returns newest <code>limit</code> post keys, newest first
+    */
+   private List<PostKey> loadWatchedPosts(int limit) {
+      return loadWatchedPosts(limit, Long.MIN_VALUE);
    }
 
+   /*
+    * Same as above but only posts not older than <code>since</code> are looked at
+    */
+   private List<PostKey> loadWatchedPosts(int limit, long since) {
+      List<String> following = new FollowGraph(provider).getFollowing(auth.get().getUsername());
+      if (WatchedPostsTask.isUsable(getUserCache())) {
+         return WatchedPostsTask.loadPosts(getUserCache(), following, limit, since);
+      }
+      // get a descending post iterator for each user
+      List<Iterator<PostKey>> followingPostsIterators = new ArrayList<Iterator<PostKey>>();
+      for (Object user : provider.getAll(getUserCache(), following).values()) {
+         followingPostsIterators.add(new UserPostKeyIterator((User) user, provider));
+      }
+      return PostKeyMerger.merge(followingPostsIterators, limit, since);
+   }
+
+   /*
+    * Merge posts of all watched users older than the <code>before</code> cursor
+    */
+   private List<PostKey> loadWatchedPostsBefore(PostKey before, int limit) {
+      List<String> following = new FollowGraph(provider).getFollowing(auth.get().getUsername());
+      if (WatchedPostsTask.isUsable(getUserCache())) {
+         return WatchedPostsTask.loadPostsBefore(getUserCache(), following, before, limit);
+      }
+      List<Iterator<PostKey>> followingPostsIterators = new ArrayList<Iterator<PostKey>>();
+      for (Object user : provider.getAll(getUserCache(), following).values()) {
+         followingPostsIterators.add(new UserPostKeyIterator((User) user, provider, before));
+      }
+      return PostKeyMerger.merge(followingPostsIterators, limit);
+   }
+
+   /*
+    * Owners are needed for avatars, also for names of posts created before owner name was stored along
+    */
+   private User getOwner(String username, HashMap<String, User> owners) {
+      User owner = owners.get(username);
+      if (owner == null) {
+         owner = provider.getUser(username);
+         owners.put(username, owner);
+      }
+      return owner;
+   }
+
+   /*
+    * Stores a rebuilt timeline. Posts fanned out meanwhile to a timeline stored by someone else
+    * are merged in, so are posts sent since <code>rebuildStart</code> that found no timeline to
+    * go to while the watched posts were loaded.
+    */
+   private void storeTimeline(String username, Timeline timeline, long rebuildStart) {
+      try {
+         utx.begin();
+         Timeline existing = (Timeline) getTimelineCache().putIfAbsent(username, timeline);
+         if (existing != null) {
+            for (PostKey key : existing.getPosts()) {
+               timeline.add(key);
+            }
+            getTimelineCache().put(username, timeline);
+         }
+         utx.commit();
+
+         // senders committing from now on find the timeline
+         List<PostKey> missed = loadWatchedPosts(TIMELINE_SIZE, rebuildStart);
+         if (!missed.isEmpty()) {
+            utx.begin();
+            Timeline stored = (Timeline) getTimelineCache().get(username);
+            boolean added = false;
+            if (stored != null) {
+               stored = stored.copy();
+               for (PostKey key : missed) {
+                  added = stored.add(key) || added;
+               }
+            }
+            if (added) getTimelineCache().put(username, stored);
+            utx.commit();
+         }
+      } catch (Exception e) {
+         if (utx != null) {
+            try {
+               utx.rollback();
+            } catch (Exception e1) {
+            }
+         }
+         // not fatal, the timeline will be rebuilt next time
+         log.log(Level.WARNING, "failed to store timeline of user " + username, e);
+      }
+   }
+
+   /*
+    * Appends the next page continuing after the last displayed post instead of reloading all
+    */
    public void morePosts() {
+       if (!recentPosts.isEmpty() && recentPosts.size() >= showedPosts) {
+          DisplayPost last = recentPosts.getLast();
+          PostKey before = last.getKey();
+          recentPosts.addAll(toDisplayPosts(loadPostKeysBefore(before, INCREASE_SHOWED_BY), recentPostsCache));
+       }
        showedPosts += INCREASE_SHOWED_BY;
+       memo.invalidateRecentPosts();
    }
 
    public void setDisplayedPostsLimit(int limit) {
        showedPosts = limit;
+       memo.invalidateRecentPosts();
    }
    
    public int getDisplayedPostsLimit() {
@@ -211,28 +466,69 @@ public class PostBean implements Serializable {
    }
 
    public List<DisplayPost> getMyPosts() {
-      LinkedList<DisplayPost> myPosts = new LinkedList<DisplayPost>();
-      List<PostKey> myPostKeys = auth.get().getUser().getPosts();
-      for (PostKey key : myPostKeys) {
-         Post t = (Post) getPostCache().get(key);
-         if (t != null) {
-            DisplayPost dispPost = new DisplayPost(auth.get().getUser().getName(), auth.get()
-                  .getUser().getUsername(), t.getMessage(), t.getTimeOfPost());
-            myPosts.addFirst(dispPost);
-         }
-      }
-      return myPosts;
+      return getUserPostsPage(auth.get().getUser(), myPostsPager, MY_POSTS_PAGE_SIZE);
    }
 
    public List<DisplayPost> getWatchedUserPosts() {
-      LinkedList<DisplayPost> userPosts = new LinkedList<DisplayPost>();
-      List<PostKey> myPostKeys = userBean.getWatchedUser().getPosts();
-      for (PostKey key : myPostKeys) {
-         Post t = (Post) getPostCache().get(key);
-         if (t != null) {
-            DisplayPost dispPost = new DisplayPost(userBean.getWatchedUser().getName(), userBean
-                  .getWatchedUser().getUsername(), t.getMessage(), t.getTimeOfPost());
-            userPosts.addFirst(dispPost);
+      return getUserPostsPage(userBean.getWatchedUser(), watchedUserPostsPager, WATCHED_USER_POSTS_PAGE_SIZE);
+   }
+
+   public PostsPager getMyPostsPager() {
+      return myPostsPager;
+   }
+
+   public PostsPager getWatchedUserPostsPager() {
+      return watchedUserPostsPager;
+   }
+
+   /*
+    * Loads only the page the pager points at, one more key is looked at to know if there are older posts
+    */
+   private List<DisplayPost> getUserPostsPage(User user, PostsPager pager, int pageSize) {
+      List<PostKey> postKeys = getUserPostKeys(user, pager.getCursor(user.getUsername()), pageSize + 1);
+      if (postKeys.size() > pageSize) {
+         postKeys = postKeys.subList(0, pageSize);
+         pager.setNextCursor(postKeys.get(pageSize - 1));
+      } else {
+         pager.setNextCursor(null);
+      }
+      return toUserDisplayPosts(user, postKeys);
+   }
+
+   /*
+    * Returns at most <code>limit</code> posts of the user older than the <code>before</code>
+    * cursor (or the newest ones for null cursor), newest first
+    */
+   public List<DisplayPost> getUserPosts(User user, PostKey before, int limit) {
+      return toUserDisplayPosts(user, getUserPostKeys(user, before, limit));
+   }
+
+   private List<PostKey> getUserPostKeys(User user, PostKey before, int limit) {
+      List<PostKey> postKeys = new ArrayList<PostKey>(limit);
+      UserPostKeyIterator it = new UserPostKeyIterator(user, provider, before);
+      while (postKeys.size() < limit && it.hasNext()) {
+         postKeys.add(it.next());
+      }
+      return postKeys;
+   }
+
+   private List<DisplayPost> toUserDisplayPosts(User user, List<PostKey> postKeys) {
+      Map<PostKey, DisplayPost> shared = displayPostCache.getAll(postKeys);
+      List<PostKey> notShared = new ArrayList<PostKey>();
+      for (PostKey key : postKeys) {
+         if (!shared.containsKey(key)) notShared.add(key);
+      }
+      Map<PostKey, Object> rawPosts = provider.getAll(getPostCache(), notShared);
+      List<DisplayPost> userPosts = new ArrayList<DisplayPost>(postKeys.size());
+      for (PostKey key : postKeys) {
+         DisplayPost post = shared.get(key);
+         Post t;
+         if (post == null && (t = (Post) rawPosts.get(key)) != null) {
+            post = new DisplayPost(user.getName(), key, t.getMessage(), user.getAvatarReference());
+            displayPostCache.put(key, post);
+         }
+         if (post != null) {
+            userPosts.add(post);
          }
       }
       return userPosts;
@@ -254,8 +550,18 @@ public class PostBean implements Serializable {
       return provider.getCacheContainer().getCache("postCache");
    }
 
+   private BasicCache<String, Object> getTimelineCache() {
+      return provider.getCacheContainer().getCache("timelineCache");
+   }
+
+   private BasicCache<PostBucketKey, Object> getPostIndexCache() {
+      return provider.getCacheContainer().getCache(UserPostIndex.CACHE_NAME);
+   }
+
    public void resetRecentPosts() {
       recentPosts.clear();
+      newestPostId = 0;
+      memo.invalidateRecentPosts();
       showedPosts = INITIAL_SHOWED_POSTS;
    }
 }
@@ -21,7 +21,6 @@
  */
 package com.jboss.datagrid.chunchun.session;
 
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,6 +35,7 @@ import javax.inject.Named;
 import javax.transaction.UserTransaction;
 import org.infinispan.api.BasicCache;
 import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
 
 /**
  * Handles operations with users (retrieving users from a cache, getting 
@@ -71,36 +71,20 @@ public class UserBean implements Serializable {
    @Inject
    private UserTransaction utx;
 
-   // TODO: make this method return avatar by reference instead of username, store avatar reference in DisplayPost
-   public void showUserImage(OutputStream out, Object data) {
-      try {
-         User u = (User) getUserCache().get((String) data);
-         out.write(getAvatarCache().get(u.getAvatar()));
-      } catch (Exception e) {
-         throw new RuntimeException("Unable to load data for image", e);
-      }
-   }
-   
    public List<User> getWatching() {
-      List<User> returnWatching = new LinkedList<User>();
-      List<String> watching = watchedUser.getWatching();
-      for (String username : watching) {
-         if (username != null) {
-            User u = (User) getUserCache().get(username);
-            returnWatching.add(u);
-         }
-      }
-      return returnWatching;
+      return getUsers(getFollowGraph().getFollowing(watchedUser.getUsername()));
    }
 
    public List<User> getWatchers() {
-      List<User> returnWatchers = new LinkedList<User>();
-      List<String> watchers = watchedUser.getWatchers();
-      for (String username : watchers) {
-         User u = (User) getUserCache().get(username);
-         returnWatchers.add(u);
+      return getUsers(getFollowGraph().getFollowers(watchedUser.getUsername()));
+   }
+
+   private List<User> getUsers(List<String> usernames) {
+      List<User> users = new LinkedList<User>();
+      for (Object u : provider.getAll(getUserCache(), usernames).values()) {
+         users.add((User) u);
       }
-      return returnWatchers;
+      return users;
    }
 
    public String showUser(User user) {
@@ -109,7 +93,7 @@ public class UserBean implements Serializable {
    }
 
    public String showUser(DisplayPost post) {
-      this.watchedUser = (User) getUserCache().get(post.getOwnerUsername());
+      this.watchedUser = provider.getUser(post.getOwnerUsername());
       return "userdetails";
    }
 
@@ -117,8 +101,12 @@ public class UserBean implements Serializable {
       return provider.getCacheContainer().getCache("userCache");
    }
 
-   private BasicCache<String, byte[]> getAvatarCache() {
-      return provider.getCacheContainer().getCache("avatarCache");
+   private FollowGraph getFollowGraph() {
+      return new FollowGraph(provider);
+   }
+
+   private BasicCache<String, Object> getTimelineCache() {
+      return provider.getCacheContainer().getCache("timelineCache");
    }
 
    public User getWatchedUser() {
@@ -135,23 +123,22 @@ public class UserBean implements Serializable {
    }
 
    public boolean isWatchedByMe(User u) {
-      List<String> watching = auth.get().getUser().getWatching();
-      return watching.contains(u.getUsername());
+      return getFollowGraph().isFollowing(auth.get().getUsername(), u.getUsername());
    }
 
+   /*
+    * Asked for each displayed user, comparing names needs no cache lookup
+    */
    public boolean isMe(User u) {
-      return auth.get().getUser().equals(u);
+      return auth.get().getUsername().equals(u.getUsername());
    }
 
    public String watchUser(User user) {
-      User me = this.auth.get().getUser();
+      String me = this.auth.get().getUsername();
       try {
          utx.begin();
-         me.getWatching().add(user.getUsername());
-         User watchedUser = (User) getUserCache().get(user.getUsername());
-         watchedUser.getWatchers().add(me.getUsername());
-         getUserCache().replace(watchedUser.getUsername(), watchedUser); //to let Infinispan know the entry has changed -> replicate
-         getUserCache().replace(me.getUsername(), me); //to let Infinispan know the entry has changed -> replicate
+         getFollowGraph().follow(me, user.getUsername());
+         getTimelineCache().remove(me); // rebuilt on next read
          utx.commit();
 
          postBean.resetRecentPosts();
@@ -170,14 +157,11 @@ public class UserBean implements Serializable {
    }
    
    public String stopWatchingUser(User user) {
-      User me = this.auth.get().getUser();
+      String me = this.auth.get().getUsername();
       try {
          utx.begin();
-         me.getWatching().remove(user.getUsername());
-         User watchedUser = (User) getUserCache().get(user.getUsername());
-         watchedUser.getWatchers().remove(me.getUsername());
-         getUserCache().replace(watchedUser.getUsername(), watchedUser);
-         getUserCache().replace(me.getUsername(), me);
+         getFollowGraph().unfollow(me, user.getUsername());
+         getTimelineCache().remove(me); // rebuilt on next read
          utx.commit();
 
          postBean.resetRecentPosts();
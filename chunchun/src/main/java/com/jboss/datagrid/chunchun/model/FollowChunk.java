@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
+/**
+ * Part of a user's followers or followed users. Chunks are never modified once stored,
+ * {@link #with(String)} and {@link #without(String)} return a modified copy to put back,
+ * so the instance returned by a local cache may be read without locking.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class FollowChunk implements Serializable {
+
+   private static final long serialVersionUID = -6427805563394170725L;
+
+   public static final FollowChunk EMPTY = new FollowChunk(Collections.<String>emptySet());
+
+   private LinkedHashSet<String> usernames;
+
+   private FollowChunk(Collection<String> usernames) {
+      this.usernames = new LinkedHashSet<String>(usernames);
+   }
+
+   public boolean contains(String username) {
+      return usernames.contains(username);
+   }
+
+   public FollowChunk with(String username) {
+      FollowChunk chunk = new FollowChunk(usernames);
+      chunk.usernames.add(username);
+      return chunk;
+   }
+
+   public FollowChunk without(String username) {
+      FollowChunk chunk = new FollowChunk(usernames);
+      chunk.usernames.remove(username);
+      return chunk;
+   }
+
+   public Collection<String> getUsernames() {
+      return Collections.unmodifiableSet(usernames);
+   }
+
+   public int size() {
+      return usernames.size();
+   }
+
+   public boolean isEmpty() {
+      return usernames.isEmpty();
+   }
+
+   public static class Externalizer extends AbstractExternalizer<FollowChunk> {
+
+      @Override
+      public Set<Class<? extends FollowChunk>> getTypeClasses() {
+         return Collections.<Class<? extends FollowChunk>>singleton(FollowChunk.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.FOLLOW_CHUNK;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, FollowChunk chunk) throws IOException {
+         UnsignedNumeric.writeUnsignedInt(output, chunk.usernames.size());
+         for (String username : chunk.usernames) {
+            ChunchunExternalizers.writeString(output, username);
+         }
+      }
+
+      @Override
+      public FollowChunk readObject(ObjectInput input) throws IOException {
+         int size = UnsignedNumeric.readUnsignedInt(input);
+         List<String> usernames = new ArrayList<String>(size);
+         for (int i = 0; i < size; i++) {
+            usernames.add(ChunchunExternalizers.readString(input));
+         }
+         return new FollowChunk(usernames);
+      }
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.distribution.group.Group;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
+/**
+ * Identifies one chunk of a user's followers or followed users.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class FollowChunkKey implements Serializable {
+
+   private static final long serialVersionUID = 3962279745093418412L;
+
+   private String username;
+
+   private int chunk;
+
+   public FollowChunkKey(String username, int chunk) {
+      this.username = username;
+      this.chunk = chunk;
+   }
+
+   // colocated with the user, see PostKey.getOwner()
+   @Group
+   public String getUsername() {
+      return username;
+   }
+
+   public int getChunk() {
+      return chunk;
+   }
+
+   public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((username == null) ? 0 : username.hashCode());
+      result = prime * result + chunk;
+      return result;
+   }
+
+   public boolean equals(Object obj) {
+      if (this == obj)
+         return true;
+      if (obj == null || getClass() != obj.getClass())
+         return false;
+      FollowChunkKey other = (FollowChunkKey) obj;
+      if (username == null) {
+         if (other.username != null)
+            return false;
+      } else if (!username.equals(other.username))
+         return false;
+      if (chunk != other.chunk)
+         return false;
+      return true;
+   }
+
+   public String toString() {
+      return username + "#" + chunk;
+   }
+
+   public String toDBKeyString() {
+      return Integer.toString(chunk, 16) + ":" + username;
+   }
+
+   public static FollowChunkKey fromDBKeyString(String val) {
+      int indexOfSeparator = val.indexOf(":");
+      return new FollowChunkKey(val.substring(indexOfSeparator + 1), Integer.parseInt(val.substring(0, indexOfSeparator), 16));
+   }
+
+   public static class Externalizer extends AbstractExternalizer<FollowChunkKey> {
+
+      @Override
+      public Set<Class<? extends FollowChunkKey>> getTypeClasses() {
+         return Collections.<Class<? extends FollowChunkKey>>singleton(FollowChunkKey.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.FOLLOW_CHUNK_KEY;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, FollowChunkKey key) throws IOException {
+         ChunchunExternalizers.writeString(output, key.username);
+         UnsignedNumeric.writeUnsignedInt(output, key.chunk);
+      }
+
+      @Override
+      public FollowChunkKey readObject(ObjectInput input) throws IOException {
+         return new FollowChunkKey(ChunchunExternalizers.readString(input), UnsignedNumeric.readUnsignedInt(input));
+      }
+   }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
+/**
+ * Follower and following counts of a user together with bit masks of the non-empty chunks so
+ * that users with a few followers do not need to look at every chunk. One instance is stored
+ * per user and chunk, next to the chunk it counts, so a follow touches only the counts of the
+ * chunks it changes. The counts of a user are the {@link #plus(FollowCounts) sum} of its
+ * chunk counts. A user's chunk masks alone, without counts, are kept in one more entry which
+ * changes only when a chunk becomes non-empty or empty. Never modified once stored, like
+ * {@link FollowChunk}.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class FollowCounts implements Serializable {
+
+   private static final long serialVersionUID = 1573346052563447707L;
+
+   public static final FollowCounts NONE = new FollowCounts(0, 0, 0L, 0L);
+
+   private int followers;
+
+   private int following;
+
+   private long followerChunks;
+
+   private long followingChunks;
+
+   private FollowCounts(int followers, int following, long followerChunks, long followingChunks) {
+      this.followers = followers;
+      this.following = following;
+      this.followerChunks = followerChunks;
+      this.followingChunks = followingChunks;
+   }
+
+   /*
+    * The methods below modify the counts of a single chunk, the chunk bit is set while the
+    * chunk has any followers or followed users.
+    */
+   public FollowCounts withFollowerAdded(int chunk) {
+      return new FollowCounts(followers + 1, following, 1L << chunk, followingChunks);
+   }
+
+   public FollowCounts withFollowerRemoved(int chunk) {
+      return new FollowCounts(followers - 1, following, followers > 1 ? 1L << chunk : 0L, followingChunks);
+   }
+
+   public FollowCounts withFollowingAdded(int chunk) {
+      return new FollowCounts(followers, following + 1, followerChunks, 1L << chunk);
+   }
+
+   public FollowCounts withFollowingRemoved(int chunk) {
+      return new FollowCounts(followers, following - 1, followerChunks, following > 1 ? 1L << chunk : 0L);
+   }
+
+   /*
+    * Sets or clears a chunk bit of the masks entry, counts are left as they are
+    */
+   public FollowCounts withFollowerChunk(int chunk, boolean nonEmpty) {
+      return new FollowCounts(followers, following, nonEmpty ? followerChunks | 1L << chunk : followerChunks & ~(1L << chunk), followingChunks);
+   }
+
+   public FollowCounts withFollowingChunk(int chunk, boolean nonEmpty) {
+      return new FollowCounts(followers, following, followerChunks, nonEmpty ? followingChunks | 1L << chunk : followingChunks & ~(1L << chunk));
+   }
+
+   public FollowCounts plus(FollowCounts counts) {
+      return new FollowCounts(followers + counts.followers, following + counts.following,
+            followerChunks | counts.followerChunks, followingChunks | counts.followingChunks);
+   }
+
+   public boolean isEmpty() {
+      return followers == 0 && following == 0;
+   }
+
+   public int getFollowers() {
+      return followers;
+   }
+
+   public int getFollowing() {
+      return following;
+   }
+
+   public long getFollowerChunks() {
+      return followerChunks;
+   }
+
+   public long getFollowingChunks() {
+      return followingChunks;
+   }
+
+   public static class Externalizer extends AbstractExternalizer<FollowCounts> {
+
+      @Override
+      public Set<Class<? extends FollowCounts>> getTypeClasses() {
+         return Collections.<Class<? extends FollowCounts>>singleton(FollowCounts.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.FOLLOW_COUNTS;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, FollowCounts counts) throws IOException {
+         UnsignedNumeric.writeUnsignedInt(output, counts.followers);
+         UnsignedNumeric.writeUnsignedInt(output, counts.following);
+         UnsignedNumeric.writeUnsignedLong(output, counts.followerChunks);
+         UnsignedNumeric.writeUnsignedLong(output, counts.followingChunks);
+      }
+
+      @Override
+      public FollowCounts readObject(ObjectInput input) throws IOException {
+         return new FollowCounts(UnsignedNumeric.readUnsignedInt(input), UnsignedNumeric.readUnsignedInt(input),
+               UnsignedNumeric.readUnsignedLong(input), UnsignedNumeric.readUnsignedLong(input));
+      }
+   }
+}
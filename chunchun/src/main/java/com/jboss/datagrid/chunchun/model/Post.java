@@ -21,8 +21,17 @@
  */
 package com.jboss.datagrid.chunchun.model;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.Set;
+
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+import com.jboss.datagrid.chunchun.util.PostIds;
 
 /**
  * Holds data for each post.
@@ -38,15 +47,24 @@ public class Post implements Serializable {
    
    private String message;
 
+   // denormalized name of the owner so that timelines can be displayed without loading the owner
+   private String ownerName;
+
    public Post(String username, String message) {
       this.message = message;
-      this.key = new PostKey(username, Calendar.getInstance().getTimeInMillis());
+      this.key = PostKey.withId(username, PostIds.next());
    }
 
    // for application initialization purposes
    public Post(String username, String message, long timestamp) {
       this.message = message;
-      this.key = new PostKey(username, timestamp);
+      this.key = PostKey.withId(username, PostIds.next(timestamp));
+   }
+
+   // restores a post of a known key, e.g. replayed from the post log
+   public Post(PostKey key, String message) {
+      this.key = key;
+      this.message = message;
    }
 
    public PostKey getKey() {
@@ -61,6 +79,14 @@ public class Post implements Serializable {
       this.message = message;
    }
 
+   public String getOwnerName() {
+      return ownerName;
+   }
+
+   public void setOwnerName(String ownerName) {
+      this.ownerName = ownerName;
+   }
+
    public String getOwner() {
       return this.key.getOwner();
    }
@@ -68,4 +94,38 @@ public class Post implements Serializable {
    public long getTimeOfPost() {
       return this.key.getTimeOfPost();
    }
+
+   public long getId() {
+      return this.key.getId();
+   }
+
+   public static class Externalizer extends AbstractExternalizer<Post> {
+
+      @Override
+      public Set<Class<? extends Post>> getTypeClasses() {
+         return Collections.<Class<? extends Post>>singleton(Post.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.POST;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, Post post) throws IOException {
+         ChunchunExternalizers.writeString(output, post.key.getOwner());
+         ChunchunExternalizers.writePostId(output, post.key.getId());
+         ChunchunExternalizers.writeString(output, post.message);
+         ChunchunExternalizers.writeString(output, post.ownerName);
+      }
+
+      @Override
+      public Post readObject(ObjectInput input) throws IOException {
+         String owner = ChunchunExternalizers.readString(input);
+         PostKey key = PostKey.withId(owner, ChunchunExternalizers.readPostId(input));
+         Post post = new Post(key, ChunchunExternalizers.readString(input));
+         post.ownerName = ChunchunExternalizers.readString(input);
+         return post;
+      }
+   }
 }
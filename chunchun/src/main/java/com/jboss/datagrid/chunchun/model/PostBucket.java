@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+import com.jboss.datagrid.chunchun.util.PostKeyTimeComparator;
+
+/**
+ * Keys of a user's posts created during one day which no longer fit into the recent posts
+ * kept in {@link User}, oldest first. Buckets of a user form a chain from the newest one (see
+ * {@link User#getNewestArchivedDay()}) through {@link #getPreviousDay()} so that older posts
+ * can be walked without knowing the days in advance.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostBucket implements Serializable {
+
+   private static final long serialVersionUID = -1874950235129409536L;
+
+   private CopyOnWriteArrayList<PostKey> posts;
+
+   private long previousDay; // next older bucket, User.NO_ARCHIVED_POSTS if none
+
+   public PostBucket(long previousDay) {
+      this.posts = new CopyOnWriteArrayList<PostKey>();
+      this.previousDay = previousDay;
+   }
+
+   /*
+    * Posts are usually archived oldest first so they go last, a post archived already is
+    * skipped so that a retried transaction does not add it twice
+    */
+   public void add(PostKey key) {
+      if (posts.contains(key)) {
+         return;
+      }
+      int index = posts.size();
+      while (index > 0 && PostKeyTimeComparator.getInstance().compare(posts.get(index - 1), key) > 0) {
+         index--;
+      }
+      posts.add(index, key);
+   }
+
+   public boolean remove(PostKey key) {
+      return posts.remove(key);
+   }
+
+   public List<PostKey> getPosts() {
+      return Collections.unmodifiableList(posts);
+   }
+
+   public long getPreviousDay() {
+      return previousDay;
+   }
+
+   public static class Externalizer extends AbstractExternalizer<PostBucket> {
+
+      @Override
+      public Set<Class<? extends PostBucket>> getTypeClasses() {
+         return Collections.<Class<? extends PostBucket>>singleton(PostBucket.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.POST_BUCKET;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, PostBucket bucket) throws IOException {
+         output.writeBoolean(bucket.previousDay != User.NO_ARCHIVED_POSTS);
+         if (bucket.previousDay != User.NO_ARCHIVED_POSTS) {
+            ChunchunExternalizers.writeSignedLong(output, bucket.previousDay);
+         }
+         ChunchunExternalizers.writePostKeys(output, bucket.posts);
+      }
+
+      @Override
+      public PostBucket readObject(ObjectInput input) throws IOException {
+         PostBucket bucket = new PostBucket(input.readBoolean() ? ChunchunExternalizers.readSignedLong(input) : User.NO_ARCHIVED_POSTS);
+         bucket.posts.addAll(ChunchunExternalizers.readPostKeys(input));
+         return bucket;
+      }
+   }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+import org.infinispan.distribution.group.Group;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
+/**
+ * Identifies a bucket of a user's archived posts created during one (UTC) day.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostBucketKey implements Serializable {
+
+   private static final long serialVersionUID = 6280432447612935150L;
+
+   private static final long MS_PER_DAY = 24L * 3600 * 1000;
+
+   private String owner;
+
+   private long day; // days since epoch
+
+   public PostBucketKey(String owner, long day) {
+      this.owner = owner;
+      this.day = day;
+   }
+
+   /*
+    * Key of the bucket a post belongs to
+    */
+   public static PostBucketKey of(PostKey postKey) {
+      return new PostBucketKey(postKey.getOwner(), dayOf(postKey.getTimeOfPost()));
+   }
+
+   public static long dayOf(long timeOfPost) {
+      // floor so that posts before epoch do not share day 0
+      return timeOfPost >= 0 ? timeOfPost / MS_PER_DAY : (timeOfPost + 1) / MS_PER_DAY - 1;
+   }
+
+   // same group as the posts of the owner
+   @Group
+   public String getOwner() {
+      return owner;
+   }
+
+   public long getDay() {
+      return day;
+   }
+
+   public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((owner == null) ? 0 : owner.hashCode());
+      result = prime * result + (int) (day ^ (day >>> 32));
+      return result;
+   }
+
+   public boolean equals(Object obj) {
+      if (this == obj)
+         return true;
+      if (obj == null || getClass() != obj.getClass())
+         return false;
+      PostBucketKey other = (PostBucketKey) obj;
+      if (owner == null) {
+         if (other.owner != null)
+            return false;
+      } else if (!owner.equals(other.owner))
+         return false;
+      if (day != other.day)
+         return false;
+      return true;
+   }
+
+   public String toString() {
+      return owner + "@" + day;
+   }
+
+   /*
+    * Same format as {@link PostKey#toDBKeyString()} to keep buckets of a day together in indexes
+    */
+   public String toDBKeyString() {
+      return Long.toString(day, 16) + ":" + owner;
+   }
+
+   public static PostBucketKey fromDBKeyString(String val) {
+      int indexOfSeparator = val.indexOf(":");
+      return new PostBucketKey(val.substring(indexOfSeparator + 1), Long.parseLong(val.substring(0, indexOfSeparator), 16));
+   }
+
+   public static class Externalizer extends AbstractExternalizer<PostBucketKey> {
+
+      @Override
+      public Set<Class<? extends PostBucketKey>> getTypeClasses() {
+         return Collections.<Class<? extends PostBucketKey>>singleton(PostBucketKey.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.POST_BUCKET_KEY;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, PostBucketKey key) throws IOException {
+         ChunchunExternalizers.writeString(output, key.owner);
+         ChunchunExternalizers.writeSignedLong(output, key.day);
+      }
+
+      @Override
+      public PostBucketKey readObject(ObjectInput input) throws IOException {
+         return new PostBucketKey(ChunchunExternalizers.readString(input), ChunchunExternalizers.readSignedLong(input));
+      }
+   }
+}
@@ -21,10 +21,21 @@
  */
 package com.jboss.datagrid.chunchun.model;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+
+import org.infinispan.distribution.group.Group;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+import com.jboss.datagrid.chunchun.util.PostIds;
 
 /**
- * Identifies a post.
+ * Identifies a post by its owner and a time sortable id, see {@link PostIds}.
  * 
  * @author Martin Gencur
  * 
@@ -32,17 +43,30 @@ import java.io.Serializable;
 
 public class PostKey implements Serializable {
 
-   private static final long serialVersionUID = -7624874290312596494L;
+   private static final long serialVersionUID = -7624874290312596495L;
 
    private String owner;
    
-   private long timeOfPost;
+   private long id;
 
+   /*
+    * Key with the lowest id of the given millisecond, e.g. a cursor or a post of the old format
+    */
    public PostKey(String owner, long timeOfPost) {
+      this(PostIds.firstId(timeOfPost), owner);
+   }
+
+   private PostKey(long id, String owner) {
       this.owner = owner;
-      this.timeOfPost = timeOfPost;
+      this.id = id;
    }
 
+   public static PostKey withId(String owner, long id) {
+      return new PostKey(id, owner);
+   }
+
+   // posts are kept on the owners of their user entry when grouping is enabled
+   @Group
    public String getOwner() {
       return owner;
    }
@@ -51,20 +75,17 @@ public class PostKey implements Serializable {
       this.owner = username;
    }
 
-   public long getTimeOfPost() {
-      return timeOfPost;
+   public long getId() {
+      return id;
    }
 
-   public void setTimeOfPost(long timeOfPost) {
-      this.timeOfPost = timeOfPost;
+   public long getTimeOfPost() {
+      return PostIds.timeOf(id);
    }
-   
+
+   // ids are unique enough, the owner is not hashed
    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((owner == null) ? 0 : owner.hashCode());
-      result = prime * result + (int) (timeOfPost ^ (timeOfPost >>> 32));
-      return result;
+      return (int) (id ^ (id >>> 32));
    }
 
    public boolean equals(Object obj) {
@@ -73,38 +94,52 @@ public class PostKey implements Serializable {
       if (obj == null || getClass() != obj.getClass())
          return false;
       PostKey other = (PostKey) obj;
+      if (id != other.id)
+         return false;
       if (owner == null) {
          if (other.owner != null)
             return false;
       } else if (!owner.equals(other.owner))
          return false;
-      if (timeOfPost != other.timeOfPost)
-         return false;
       return true;
    }
 
    /*
-    * Converts object to string concatenating owner and timeOfPost with a dash.
-    * Useful for string mapping when jdbc cache store is used. Optimized for
-    * putting into a b-tree index I imagine.
+    * Converts object to string concatenating id and owner with a colon.
+    * Useful for string mapping when jdbc cache store is used. Ids grow with
+    * time so the keys are mostly incrementing which suits a b-tree index.
     *
     */
    public String toDBKeyString() {
-      // funky method to make up a random sorting index to help btrees but benefits are negligible if any
-      // String timestamp = String.format("%016X", Long.reverse(timeOfPost));
-      // return timestamp.substring(0, 4) + owner + timestamp.substring(4);
-
-      // mostly incrementing key
-      return Long.toString(timeOfPost, 16) + ":" + owner;
+      return Long.toString(id, 16) + ":" + owner;
    }
 
    public static PostKey fromDBKeyString(String val) {
-      // restore from the funky method in toDBKeyString()
-      // long timestamp = Long.parseLong(val.substring(val.length() - 12), 16) |
-      //                      Long.parseLong(val.substring(0, 4), 16)<<48;
-      // return new PostKey(val.substring(4, val.length() - 12), Long.reverse(timestamp));
-
       int indexOfSeparator = val.indexOf(":");
-      return new PostKey(val.substring(indexOfSeparator + 1), Long.parseLong(val.substring(0, indexOfSeparator), 16));
+      return withId(val.substring(indexOfSeparator + 1), Long.parseLong(val.substring(0, indexOfSeparator), 16));
+   }
+
+   public static class Externalizer extends AbstractExternalizer<PostKey> {
+
+      @Override
+      public Set<Class<? extends PostKey>> getTypeClasses() {
+         return Collections.<Class<? extends PostKey>>singleton(PostKey.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.POST_KEY;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, PostKey key) throws IOException {
+         ChunchunExternalizers.writeString(output, key.owner);
+         ChunchunExternalizers.writePostId(output, key.id);
+      }
+
+      @Override
+      public PostKey readObject(ObjectInput input) throws IOException {
+         return withId(ChunchunExternalizers.readString(input), ChunchunExternalizers.readPostId(input));
+      }
    }
 }
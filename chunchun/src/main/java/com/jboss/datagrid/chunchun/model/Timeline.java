@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.model;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
+/**
+ * Materialized home timeline of a user - keys of the newest posts of all watched people,
+ * newest first. Posts are pushed here by the sender so that reading recent posts is a single
+ * cache lookup. Only the newest <code>capacity</code> keys are kept, older ones are dropped
+ * and have to be looked up in the watched users' posts.
+ * <p>
+ * Keys are held as a sorted array of post ids and a parallel array of owners instead of a list
+ * of {@link PostKey} objects. Arrays are replaced on each change so that readers need no locking.
+ * <p>
+ * Fan-out to a timeline is not versioned, so an add can get lost when two nodes change the same
+ * timeline at once. Timelines older than <code>chunchun.timeline.maxage</code> milliseconds are
+ * therefore not served any more but rebuilt, which brings back any post missed meanwhile.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class Timeline implements Serializable {
+
+   private static final long serialVersionUID = 2843418763523164438L;
+
+   private static final long[] NO_IDS = new long[0];
+   private static final String[] NO_OWNERS = new String[0];
+
+   private static final int MAX_AGE = Integer.getInteger("chunchun.timeline.maxage", 10 * 60 * 1000);
+
+   private int capacity;
+
+   // newest first, replaced together on each change
+   private volatile Entries entries;
+
+   // true if any older posts were dropped (or not loaded) because of capacity
+   private boolean truncated;
+
+   // when the timeline was built out of the watched users' posts
+   private long builtAt = System.currentTimeMillis();
+
+   public Timeline(int capacity) {
+      this.capacity = capacity;
+      this.entries = new Entries(NO_IDS, NO_OWNERS);
+   }
+
+   /*
+    * Creates timeline out of post keys sorted newest first, e.g. when the timeline is rebuilt
+    * out of the watched users' posts.
+    */
+   public Timeline(int capacity, List<PostKey> newestFirst, boolean truncated) {
+      this.capacity = capacity;
+      if (newestFirst.size() > capacity) {
+         newestFirst = newestFirst.subList(0, capacity);
+         truncated = true;
+      }
+      long[] ids = new long[newestFirst.size()];
+      String[] owners = new String[newestFirst.size()];
+      for (int i = 0; i < ids.length; i++) {
+         ids[i] = newestFirst.get(i).getId();
+         owners[i] = newestFirst.get(i).getOwner();
+      }
+      this.entries = new Entries(ids, owners);
+      this.truncated = truncated;
+   }
+
+   /*
+    * Copy to be changed inside a transaction, the instance returned by a local cache is the
+    * stored one and changes to it survive a rollback. The keys are shared until changed.
+    */
+   public synchronized Timeline copy() {
+      Timeline timeline = new Timeline(capacity);
+      timeline.entries = entries;
+      timeline.truncated = truncated;
+      timeline.builtAt = builtAt;
+      return timeline;
+   }
+
+   /*
+    * Adds a new post into its place. Usually it is the newest one so it goes first. Returns false
+    * if the post is there already, e.g. when a rebuilt timeline is merged with fanned out posts.
+    */
+   public synchronized boolean add(PostKey key) {
+      Entries current = entries;
+      int index = current.indexOfFirstOlder(key);
+      if (index > 0 && current.ids[index - 1] == key.getId() && current.owners[index - 1].equals(key.getOwner())) {
+         return false;
+      }
+      if (index == capacity) {
+         truncated = true;
+         return false;
+      }
+      int size = Math.min(current.ids.length + 1, capacity);
+      if (size <= current.ids.length) {
+         truncated = true;
+      }
+      long[] ids = new long[size];
+      String[] owners = new String[size];
+      System.arraycopy(current.ids, 0, ids, 0, index);
+      System.arraycopy(current.owners, 0, owners, 0, index);
+      ids[index] = key.getId();
+      owners[index] = key.getOwner();
+      System.arraycopy(current.ids, index, ids, index + 1, size - index - 1);
+      System.arraycopy(current.owners, index, owners, index + 1, size - index - 1);
+      entries = new Entries(ids, owners);
+      return true;
+   }
+
+   public synchronized boolean remove(PostKey key) {
+      Entries current = entries;
+      int index = current.indexOfFirstOlder(key) - 1;
+      if (index < 0 || current.ids[index] != key.getId() || !current.owners[index].equals(key.getOwner())) {
+         return false;
+      }
+      int size = current.ids.length - 1;
+      long[] ids = new long[size];
+      String[] owners = new String[size];
+      System.arraycopy(current.ids, 0, ids, 0, index);
+      System.arraycopy(current.owners, 0, owners, 0, index);
+      System.arraycopy(current.ids, index + 1, ids, index, size - index);
+      System.arraycopy(current.owners, index + 1, owners, index, size - index);
+      entries = new Entries(ids, owners);
+      return true;
+   }
+
+   /*
+    * Returns true if the timeline can serve <code>limit</code> newest posts without looking at
+    * the watched users' posts.
+    */
+   public boolean canServe(int limit) {
+      return System.currentTimeMillis() - builtAt < MAX_AGE && (entries.ids.length >= limit || !truncated);
+   }
+
+   public List<PostKey> getPosts() {
+      return getNewest(Integer.MAX_VALUE);
+   }
+
+   /*
+    * Returns a snapshot of at most <code>limit</code> newest post keys.
+    */
+   public List<PostKey> getNewest(int limit) {
+      return entries.toKeys(0, limit);
+   }
+
+   /*
+    * Returns a snapshot of at most <code>limit</code> post keys strictly older than the
+    * <code>before</code> cursor. Fewer keys are a complete page only if the timeline is not
+    * truncated.
+    */
+   public List<PostKey> getOlder(PostKey before, int limit) {
+      Entries snapshot = entries;
+      return snapshot.toKeys(snapshot.indexOfFirstOlder(before), limit);
+   }
+
+   public int size() {
+      return entries.ids.length;
+   }
+
+   public int getCapacity() {
+      return capacity;
+   }
+
+   public boolean isTruncated() {
+      return truncated;
+   }
+
+   public long getBuiltAt() {
+      return builtAt;
+   }
+
+   private static class Entries implements Serializable {
+
+      private static final long serialVersionUID = -4135229474930367361L;
+
+      private final long[] ids;
+      private final String[] owners;
+
+      private Entries(long[] ids, String[] owners) {
+         this.ids = ids;
+         this.owners = owners;
+      }
+
+      /*
+       * Index of the first key older than the given one, ids are sorted descending
+       */
+      private int indexOfFirstOlder(PostKey key) {
+         int low = 0;
+         int high = ids.length;
+         while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids[middle] > key.getId()
+                  || (ids[middle] == key.getId() && owners[middle].compareTo(key.getOwner()) >= 0)) {
+               low = middle + 1;
+            } else {
+               high = middle;
+            }
+         }
+         return low;
+      }
+
+      private List<PostKey> toKeys(int from, int limit) {
+         int to = from + Math.min(limit, ids.length - from);
+         List<PostKey> keys = new ArrayList<PostKey>(to - from);
+         for (int i = from; i < to; i++) {
+            keys.add(PostKey.withId(owners[i], ids[i]));
+         }
+         return keys;
+      }
+   }
+
+   public static class Externalizer extends AbstractExternalizer<Timeline> {
+
+      @Override
+      public Set<Class<? extends Timeline>> getTypeClasses() {
+         return Collections.<Class<? extends Timeline>>singleton(Timeline.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.TIMELINE;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, Timeline timeline) throws IOException {
+         UnsignedNumeric.writeUnsignedInt(output, timeline.capacity);
+         output.writeBoolean(timeline.truncated);
+         output.writeLong(timeline.builtAt);
+         ChunchunExternalizers.writePostKeys(output, timeline.getPosts());
+      }
+
+      @Override
+      public Timeline readObject(ObjectInput input) throws IOException {
+         int capacity = UnsignedNumeric.readUnsignedInt(input);
+         boolean truncated = input.readBoolean();
+         long builtAt = input.readLong();
+         Timeline timeline = new Timeline(capacity, ChunchunExternalizers.readPostKeys(input), truncated);
+         timeline.builtAt = builtAt;
+         return timeline;
+      }
+   }
+}
@@ -21,13 +21,25 @@
  */
 package com.jboss.datagrid.chunchun.model;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import com.jboss.datagrid.chunchun.util.Avatars;
+import com.jboss.datagrid.chunchun.util.ChunchunExternalizers;
+
 /**
- * Describes a person. Also contains links to owned posts, watched/watching people.
+ * Describes a person. Also contains links to recent owned posts, watched/watching people are
+ * kept in {@link com.jboss.datagrid.chunchun.util.FollowGraph}.
  * 
  * @author Martin Gencur
  * 
@@ -36,6 +48,8 @@ public class User implements Serializable {
 
    private static final long serialVersionUID = -4241432926471034653L;
 
+   public static final long NO_ARCHIVED_POSTS = Long.MIN_VALUE;
+
    private String username; // unique identifier
 
    private String name;
@@ -46,12 +60,14 @@ public class User implements Serializable {
 
    private String avatar;
 
-   // TODO: move older pots to a separate cache, keep up to 30 posts in the User 
+   private String avatarHash; // content hash of the avatar, see Avatars
+
+   // only the most recent posts, older ones are moved to day buckets in postIndexCache (see UserPostIndex)
    private CopyOnWriteArrayList<PostKey> posts;
 
-   private CopyOnWriteArrayList<String> watchers;
+   private long newestArchivedDay = NO_ARCHIVED_POSTS;
 
-   private CopyOnWriteArrayList<String> watching;
+   private int postCount;
 
    public User(String username, String name, String surname, String password, String whoami, String avatar) {
       this.username = username;
@@ -59,33 +75,25 @@ public class User implements Serializable {
       this.password = password;
       this.whoami = whoami;
       this.posts = new CopyOnWriteArrayList<PostKey>();
-      this.watchers = new CopyOnWriteArrayList<String>();
-      this.watching = new CopyOnWriteArrayList<String>();
       this.avatar = avatar;
    }
 
-   public void addFollower(String user) {
-      if (! this.watchers.contains(user) && ! getUsername().equals(user)) {
-         this.watchers.add(user);
-      }
-   }
-
-   public void removeFollower(String user) {
-      this.watchers.remove(user);
-   }
-
-   public void addFollowing(String user) {
-      if (! this.watching.contains(user) && ! getUsername().equals(user)) {
-         this.watching.add(user);
-      }
-   }
-
-   public void removeFollowing(String user) {
-      this.watching.remove(user);
+   /*
+    * Copy to be changed inside a transaction, a local cache returns the stored instance and
+    * changes made to it survive a rollback
+    */
+   public User copy() {
+      User user = new User(username, name, null, password, whoami, avatar);
+      user.avatarHash = avatarHash;
+      user.posts.addAll(posts);
+      user.newestArchivedDay = newestArchivedDay;
+      user.postCount = postCount;
+      return user;
    }
 
    public void addPost(PostKey post) {
       this.posts.add(post);
+      this.postCount++;
    }
 
    public String getUsername() {
@@ -120,16 +128,31 @@ public class User implements Serializable {
       this.whoami = whoami;
    }
 
+   /*
+    * Recent posts, oldest first. Use {@link com.jboss.datagrid.chunchun.util.UserPostKeyIterator}
+    * to get to all of them.
+    */
    public List<PostKey> getPosts() {
       return posts;
    }
 
-   public List<String> getWatchers() {
-      return watchers;
+   /*
+    * Day of the newest bucket of archived posts, NO_ARCHIVED_POSTS if all posts are recent
+    */
+   public long getNewestArchivedDay() {
+      return newestArchivedDay;
+   }
+
+   public void setNewestArchivedDay(long newestArchivedDay) {
+      this.newestArchivedDay = newestArchivedDay;
+   }
+
+   public int getPostCount() {
+      return postCount;
    }
 
-   public List<String> getWatching() {
-      return watching;
+   public void setPostCount(int postCount) {
+      this.postCount = postCount;
    }
 
    public String getAvatar() {
@@ -140,6 +163,21 @@ public class User implements Serializable {
       this.avatar = avatar;
    }
 
+   public String getAvatarHash() {
+      return avatarHash;
+   }
+
+   public void setAvatarHash(String avatarHash) {
+      this.avatarHash = avatarHash;
+   }
+
+   /*
+    * Content addressed reference the avatar is linked with, see {@link Avatars}
+    */
+   public String getAvatarReference() {
+      return Avatars.reference(avatarHash, avatar);
+   }
+
    public boolean containedIn(Iterator<User> iterator) {
       boolean contained = false;
       while(iterator.hasNext() & ! contained) {
@@ -148,4 +186,46 @@ public class User implements Serializable {
       }
       return contained;
    }
+
+   public static class Externalizer extends AbstractExternalizer<User> {
+
+      @Override
+      public Set<Class<? extends User>> getTypeClasses() {
+         return Collections.<Class<? extends User>>singleton(User.class);
+      }
+
+      @Override
+      public Integer getId() {
+         return ChunchunExternalizers.USER;
+      }
+
+      @Override
+      public void writeObject(ObjectOutput output, User user) throws IOException {
+         ChunchunExternalizers.writeString(output, user.username);
+         ChunchunExternalizers.writeString(output, user.name);
+         ChunchunExternalizers.writeString(output, user.password);
+         ChunchunExternalizers.writeString(output, user.whoami);
+         ChunchunExternalizers.writeString(output, user.avatar);
+         ChunchunExternalizers.writeString(output, user.avatarHash);
+         ChunchunExternalizers.writePostKeys(output, user.posts);
+         output.writeBoolean(user.newestArchivedDay != NO_ARCHIVED_POSTS);
+         if (user.newestArchivedDay != NO_ARCHIVED_POSTS) {
+            ChunchunExternalizers.writeSignedLong(output, user.newestArchivedDay);
+         }
+         UnsignedNumeric.writeUnsignedInt(output, user.postCount);
+      }
+
+      @Override
+      public User readObject(ObjectInput input) throws IOException {
+         User user = new User(ChunchunExternalizers.readString(input), ChunchunExternalizers.readString(input), null,
+               ChunchunExternalizers.readString(input), ChunchunExternalizers.readString(input), ChunchunExternalizers.readString(input));
+         user.avatarHash = ChunchunExternalizers.readString(input);
+         user.posts = new CopyOnWriteArrayList<PostKey>(ChunchunExternalizers.readPostKeys(input));
+         if (input.readBoolean()) {
+            user.newestArchivedDay = ChunchunExternalizers.readSignedLong(input);
+         }
+         user.postCount = UnsignedNumeric.readUnsignedInt(input);
+         return user;
+      }
+   }
 }
\ No newline at end of file
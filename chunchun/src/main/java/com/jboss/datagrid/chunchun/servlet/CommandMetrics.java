@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.servlet;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jboss.datagrid.chunchun.util.LatencyHistogram;
+
+/**
+ * Latency histograms of the servlet commands, recorded with {@link System#nanoTime()}. They
+ * are shown by <code>command=metrics</code> and through JMX as
+ * <code>chunchun:type=CommandMetrics</code>, both can reset them between load test runs.
+ * Commands not known after <code>MAX_COMMANDS</code> distinct names are counted as
+ * <code>other</code> so that made up names cannot grow the map.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+
+   public static final String OBJECT_NAME = "chunchun:type=CommandMetrics";
+
+   private static final int MAX_COMMANDS = 64;
+   private static final String OTHER = "other";
+
+   private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+   public void record(String command, long nanos, boolean failed) {
+      histogram(command == null ? OTHER : command).record(nanos, failed);
+   }
+
+   /*
+    * Histograms by command name, sorted
+    */
+   public Map<String, LatencyHistogram> getHistograms() {
+      return new TreeMap<String, LatencyHistogram>(histograms);
+   }
+
+   public String[] getCommands() {
+      return getHistograms().keySet().toArray(new String[0]);
+   }
+
+   public String[] getReport() {
+      List<String> report = new ArrayList<String>();
+      for (Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+         report.add(describe(entry.getKey(), entry.getValue()));
+      }
+      return report.toArray(new String[report.size()]);
+   }
+
+   public long count(String command) {
+      LatencyHistogram h = histograms.get(command);
+      return h == null ? 0 : h.getCount();
+   }
+
+   public long errors(String command) {
+      LatencyHistogram h = histograms.get(command);
+      return h == null ? 0 : h.getErrors();
+   }
+
+   public long percentile(String command, double percent) {
+      LatencyHistogram h = histograms.get(command);
+      return h == null ? 0 : micros(h.getPercentile(percent));
+   }
+
+   public void reset() {
+      for (LatencyHistogram h : histograms.values()) {
+         h.reset();
+      }
+   }
+
+   public void register() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name)) server.unregisterMBean(name);
+         server.registerMBean(this, name);
+      } catch (JMException e) {
+         throw new RuntimeException("Unable to register " + OBJECT_NAME, e);
+      }
+   }
+
+   public void unregister() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name)) server.unregisterMBean(name);
+      } catch (JMException e) {
+         throw new RuntimeException("Unable to unregister " + OBJECT_NAME, e);
+      }
+   }
+
+   static String describe(String command, LatencyHistogram h) {
+      return command + ": count " + h.getCount() + ", errors " + h.getErrors() + ", p50 "
+            + micros(h.getPercentile(50)) + " us, p99 " + micros(h.getPercentile(99)) + " us, p99.9 "
+            + micros(h.getPercentile(99.9)) + " us, max " + micros(h.getMax()) + " us";
+   }
+
+   static long micros(long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+   }
+
+   private LatencyHistogram histogram(String command) {
+      LatencyHistogram h = histograms.get(command);
+      if (h == null) {
+         if (histograms.size() >= MAX_COMMANDS) {
+            command = OTHER;
+            h = histograms.get(command);
+            if (h != null) return h;
+         }
+         h = new LatencyHistogram();
+         LatencyHistogram existing = histograms.putIfAbsent(command, h);
+         if (existing != null) h = existing;
+      }
+      return h;
+   }
+}
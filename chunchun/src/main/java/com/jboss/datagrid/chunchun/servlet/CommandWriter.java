@@ -0,0 +1,358 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.DisplayPost;
+import com.jboss.datagrid.chunchun.util.LatencyHistogram;
+
+/**
+ * Writes the answer of a servlet command straight to the response as it is produced instead of
+ * building it in memory first, the container sends it chunked once its buffer is full. The
+ * plain text format is the default, <code>format=json</code> selects a compact JSON object.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public abstract class CommandWriter {
+
+   protected final PrintWriter out;
+
+   protected CommandWriter(PrintWriter out) {
+      this.out = out;
+   }
+
+   public static CommandWriter create(String format, HttpServletResponse response) throws IOException {
+      if ("json".equals(format)) {
+         response.setContentType("application/json;charset=UTF-8");
+      }
+      return create(format, response.getWriter());
+   }
+
+   public static CommandWriter create(String format, PrintWriter out) {
+      return "json".equals(format) ? new Json(out) : new Text(out);
+   }
+
+   /*
+    * Leading line of a report, e.g. its version
+    */
+   public abstract void heading(String key, String label, Object value);
+
+   public abstract void field(String key, String label, Object value);
+
+   /*
+    * Separates fields from the list that follows them
+    */
+   public abstract void separator();
+
+   public abstract void message(String text);
+
+   public abstract void message(String label, Object value);
+
+   public abstract void post(DisplayPost post);
+
+   public abstract void user(User user);
+
+   public abstract void userStats(String username, int posts, int mutualWatched);
+
+   /*
+    * Latencies of a servlet command, in microseconds
+    */
+   public abstract void latency(String command, LatencyHistogram histogram);
+
+   /*
+    * Sends what was written so far to the client, e.g. after each part of a long running report
+    */
+   public void flush() {
+      out.flush();
+   }
+
+   public void finish() {
+      flush();
+   }
+
+   /**
+    * The original line based format, each item on its own line.
+    */
+   static class Text extends CommandWriter {
+
+      Text(PrintWriter out) {
+         super(out);
+      }
+
+      @Override
+      public void heading(String key, String label, Object value) {
+         out.print(label);
+         out.print(": ");
+         out.print(value);
+         out.print(System.getProperty("line.separator"));
+      }
+
+      @Override
+      public void field(String key, String label, Object value) {
+         message(label, value);
+      }
+
+      @Override
+      public void separator() {
+         out.print('\n');
+      }
+
+      @Override
+      public void message(String text) {
+         out.print('\n');
+         out.print(text);
+      }
+
+      @Override
+      public void message(String label, Object value) {
+         out.print('\n');
+         out.print(label);
+         out.print(": ");
+         out.print(value);
+      }
+
+      @Override
+      public void post(DisplayPost post) {
+         message(post.getMessage());
+      }
+
+      @Override
+      public void user(User user) {
+         out.print('\n');
+         out.print(user.getName());
+         out.print(" (");
+         out.print(user.getWhoami());
+         out.print(')');
+      }
+
+      @Override
+      public void userStats(String username, int posts, int mutualWatched) {
+         out.print('\n');
+         out.print(username);
+         out.print(" posts: ");
+         out.print(posts);
+         out.print(", mutual watched: ");
+         out.print(mutualWatched);
+      }
+
+      @Override
+      public void latency(String command, LatencyHistogram histogram) {
+         out.print(CommandMetrics.describe(command, histogram));
+         out.print(System.getProperty("line.separator"));
+      }
+   }
+
+   /**
+    * Single JSON object, fields are its members and list items go to arrays named after them.
+    */
+   static class Json extends CommandWriter {
+
+      private boolean started;
+
+      // name of the array being written, null if none
+      private String array;
+      private boolean firstElement;
+
+      Json(PrintWriter out) {
+         super(out);
+      }
+
+      @Override
+      public void heading(String key, String label, Object value) {
+         field(key, label, value);
+      }
+
+      @Override
+      public void field(String key, String label, Object value) {
+         member(key);
+         value(value);
+      }
+
+      @Override
+      public void separator() {
+      }
+
+      @Override
+      public void message(String text) {
+         element("messages");
+         string(text);
+      }
+
+      @Override
+      public void message(String label, Object value) {
+         element("messages");
+         out.print('"');
+         escape(label);
+         out.print(": ");
+         escape(String.valueOf(value));
+         out.print('"');
+      }
+
+      @Override
+      public void post(DisplayPost post) {
+         element("posts");
+         out.print("{\"id\":");
+         out.print(post.getPostId());
+         out.print(",\"owner\":");
+         string(post.getOwnerUsername());
+         out.print(",\"name\":");
+         string(post.getOwnerName());
+         out.print(",\"time\":");
+         out.print(post.getTimeOfPost());
+         out.print(",\"message\":");
+         string(post.getMessage());
+         out.print('}');
+      }
+
+      @Override
+      public void user(User user) {
+         element("users");
+         out.print("{\"username\":");
+         string(user.getUsername());
+         out.print(",\"name\":");
+         string(user.getName());
+         out.print(",\"whoami\":");
+         string(user.getWhoami());
+         out.print('}');
+      }
+
+      @Override
+      public void userStats(String username, int posts, int mutualWatched) {
+         element("users");
+         out.print("{\"username\":");
+         string(username);
+         out.print(",\"posts\":");
+         out.print(posts);
+         out.print(",\"mutualWatched\":");
+         out.print(mutualWatched);
+         out.print('}');
+      }
+
+      @Override
+      public void latency(String command, LatencyHistogram histogram) {
+         element("metrics");
+         out.print("{\"command\":");
+         string(command);
+         out.print(",\"count\":");
+         out.print(histogram.getCount());
+         out.print(",\"errors\":");
+         out.print(histogram.getErrors());
+         out.print(",\"p50\":");
+         out.print(CommandMetrics.micros(histogram.getPercentile(50)));
+         out.print(",\"p99\":");
+         out.print(CommandMetrics.micros(histogram.getPercentile(99)));
+         out.print(",\"p999\":");
+         out.print(CommandMetrics.micros(histogram.getPercentile(99.9)));
+         out.print(",\"max\":");
+         out.print(CommandMetrics.micros(histogram.getMax()));
+         out.print('}');
+      }
+
+      @Override
+      public void finish() {
+         closeArray();
+         out.print(started ? "}" : "{}");
+         super.finish();
+      }
+
+      private void member(String key) {
+         closeArray();
+         out.print(started ? ',' : '{');
+         started = true;
+         string(key);
+         out.print(':');
+      }
+
+      private void element(String name) {
+         if (!name.equals(array)) {
+            member(name);
+            out.print('[');
+            array = name;
+            firstElement = true;
+         }
+         if (!firstElement) {
+            out.print(',');
+         }
+         firstElement = false;
+      }
+
+      private void closeArray() {
+         if (array != null) {
+            out.print(']');
+            array = null;
+         }
+      }
+
+      private void value(Object value) {
+         if (value instanceof Number || value instanceof Boolean) {
+            out.print(value);
+         } else {
+            string(value == null ? null : value.toString());
+         }
+      }
+
+      private void string(String s) {
+         if (s == null) {
+            out.print("null");
+            return;
+         }
+         out.print('"');
+         escape(s);
+         out.print('"');
+      }
+
+      private void escape(String s) {
+         for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+               case '"':
+                  out.print("\\\"");
+                  break;
+               case '\\':
+                  out.print("\\\\");
+                  break;
+               case '\n':
+                  out.print("\\n");
+                  break;
+               case '\r':
+                  out.print("\\r");
+                  break;
+               case '\t':
+                  out.print("\\t");
+                  break;
+               default:
+                  if (c < 0x20) {
+                     out.print(String.format("\\u%04x", (int) c));
+                  } else {
+                     out.print(c);
+                  }
+            }
+         }
+      }
+   }
+}
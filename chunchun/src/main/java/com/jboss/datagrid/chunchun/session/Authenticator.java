@@ -64,6 +64,9 @@ public class Authenticator implements Serializable {
    @Inject
    private PostBean postBean;
 
+   @Inject
+   private RequestMemo memo;
+
    @PostConstruct
    public void initialize() {
       userCache = provider.getCacheContainer().getCache("userCache");
@@ -84,6 +87,7 @@ public class Authenticator implements Serializable {
       String currentEncryptedPassword = InitializeCache.hashPassword(password);
       if (storedEncryptedPassword.equals(currentEncryptedPassword)) {
          user = currentUser;
+         memo.setUser(user);
          userBean.setWatchedUser(user);
          postBean.resetRecentPosts();
       } else {
@@ -128,7 +132,15 @@ public class Authenticator implements Serializable {
       this.password = password;
    }
 
+   /*
+    * Looked up once per request, see {@link RequestMemo}
+    */
    public User getUser() {
-      return (User) userCache.get(username);
+      User current = memo.getUser(username);
+      if (current == null) {
+         current = provider.getUser(username);
+         memo.setUser(current);
+      }
+      return current;
    }
 }
@@ -21,8 +21,15 @@
  */
 package com.jboss.datagrid.chunchun.session;
 
+import java.util.Collection;
+import java.util.Map;
+
+import org.infinispan.api.BasicCache;
 import org.infinispan.api.BasicCacheContainer;
 
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.UserNearCache;
+
 /**
  * 
  * Implementations should create an instance of a cache manager (e.g. DefaultCacheManager)
@@ -34,4 +41,21 @@ public interface CacheContainerProvider {
 
    public BasicCacheContainer getCacheContainer();
 
+   /**
+    * Looks up all given keys in parallel. Returns found entries in the order of the given keys,
+    * missing keys are left out.
+    */
+   public <K, V> Map<K, V> getAll(BasicCache<K, V> cache, Collection<? extends K> keys);
+
+   /**
+    * Looks up a user for reading, possibly served from a node local copy. Users to be changed
+    * must be read from the user cache.
+    */
+   public User getUser(String username);
+
+   /**
+    * Node local copies of users behind {@link #getUser(String)}, null if there are none.
+    */
+   public UserNearCache getUserNearCache();
+
 }
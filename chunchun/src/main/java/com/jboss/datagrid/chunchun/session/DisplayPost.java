@@ -25,6 +25,9 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.util.PostIds;
+
 /**
  * Displays all information about posts and their owners in JSF pages.
  * 
@@ -49,22 +52,24 @@ public class DisplayPost {
    
    private String message;
    
-   // TODO: store avatar reference as well, see User and UserBeen TODOs
+   private String ownerAvatar; // see User.getAvatarReference()
 
-   private long timeOfPost;
+   private long postId;
 
-   public DisplayPost(String name, String username, String message, long timeOfPost) {
+   public DisplayPost(String name, PostKey key, String message, String ownerAvatar) {
       this.ownerName = name;
-      this.ownerUsername = username;
+      this.ownerUsername = key.getOwner();
       this.message = message;
-      this.timeOfPost = timeOfPost;
+      this.ownerAvatar = ownerAvatar;
+      this.postId = key.getId();
    }
    
    public DisplayPost() {
       this.ownerName = "";
       this.ownerUsername = "";
       this.message = "";
-      this.timeOfPost = 0;
+      this.ownerAvatar = "";
+      this.postId = PostIds.firstId(0);
    }
 
    public String getOwnerName() {
@@ -79,6 +84,10 @@ public class DisplayPost {
       return message;
    }
 
+   public String getOwnerAvatar() {
+      return ownerAvatar;
+   }
+
    public String getFriendlyTimeOfPost() {
       Date now = Calendar.getInstance().getTime();
 
@@ -121,6 +130,14 @@ public class DisplayPost {
    }
 
    public long getTimeOfPost() {
-      return timeOfPost;
+      return PostIds.timeOf(postId);
+   }
+
+   public long getPostId() {
+      return postId;
+   }
+
+   public PostKey getKey() {
+      return PostKey.withId(ownerUsername, postId);
    }
 }
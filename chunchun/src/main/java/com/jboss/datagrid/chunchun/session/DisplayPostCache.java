@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.session;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+/**
+ * Display posts shared by all sessions of this node so that a popular post is loaded from the
+ * post cache and built only once and not once per session showing it. Holds at most
+ * <code>chunchun.displaypost.cache.size</code> least recently used posts, each for at most
+ * <code>chunchun.displaypost.cache.lifespan</code> milliseconds. Deleted posts are removed
+ * right away on this node, other nodes drop them when they expire.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+@ApplicationScoped
+public class DisplayPostCache {
+
+   private static final int MAX_ENTRIES = Integer.getInteger("chunchun.displaypost.cache.size", 10000);
+   private static final int LIFESPAN = Integer.getInteger("chunchun.displaypost.cache.lifespan", 10 * 60 * 1000);
+
+   private final long lifespan;
+
+   // access ordered, the eldest entry is the least recently used one
+   private final LinkedHashMap<PostKey, CachedPost> entries;
+
+   public DisplayPostCache() {
+      this(MAX_ENTRIES, LIFESPAN);
+   }
+
+   public DisplayPostCache(final int maxEntries, long lifespan) {
+      this.lifespan = lifespan;
+      this.entries = new LinkedHashMap<PostKey, CachedPost>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<PostKey, CachedPost> eldest) {
+            return size() > maxEntries;
+         }
+      };
+   }
+
+   public DisplayPost get(PostKey key) {
+      long now = System.currentTimeMillis();
+      synchronized (entries) {
+         return getValid(key, now);
+      }
+   }
+
+   /*
+    * Returns cached posts of the given keys, the missing ones are left out
+    */
+   public Map<PostKey, DisplayPost> getAll(Collection<PostKey> keys) {
+      Map<PostKey, DisplayPost> result = new HashMap<PostKey, DisplayPost>();
+      long now = System.currentTimeMillis();
+      synchronized (entries) {
+         for (PostKey key : keys) {
+            DisplayPost post = getValid(key, now);
+            if (post != null) result.put(key, post);
+         }
+      }
+      return result;
+   }
+
+   public void put(PostKey key, DisplayPost post) {
+      CachedPost entry = new CachedPost(post, System.currentTimeMillis() + lifespan);
+      synchronized (entries) {
+         entries.put(key, entry);
+      }
+   }
+
+   public void remove(PostKey key) {
+      synchronized (entries) {
+         entries.remove(key);
+      }
+   }
+
+   public int size() {
+      synchronized (entries) {
+         return entries.size();
+      }
+   }
+
+   private DisplayPost getValid(PostKey key, long now) {
+      CachedPost entry = entries.get(key);
+      if (entry == null) {
+         return null;
+      }
+      if (entry.expires < now) {
+         entries.remove(key);
+         return null;
+      }
+      return entry.post;
+   }
+
+   private static class CachedPost {
+
+      private final DisplayPost post;
+      private final long expires;
+
+      private CachedPost(DisplayPost post, long expires) {
+         this.post = post;
+         this.expires = expires;
+      }
+   }
+}
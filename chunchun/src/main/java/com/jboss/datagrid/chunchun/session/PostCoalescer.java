@@ -0,0 +1,437 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.session;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.TransactionManager;
+
+import org.infinispan.Cache;
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.PostBatch;
+import com.jboss.datagrid.chunchun.util.PostLog;
+
+/**
+ * Group commit of posts sent by all sessions of this node. Posts are queued and a single
+ * thread commits whatever arrived within <code>chunchun.post.coalesce.delay</code>
+ * milliseconds of the first one, at most <code>chunchun.post.coalesce.batch</code> sends, in
+ * one transaction. Posts of the same owner share a single read and replace of the user entry.
+ * Senders wait until the transaction with their posts commits. Should it fail, each owner's
+ * posts are retried in a transaction of their own so that one bad send does not fail the
+ * others. Users are changed as copies so a rolled back attempt leaves nothing behind for the
+ * retry to apply twice.
+ * <p>
+ * With <code>chunchun.post.log</code> set to a file, posts are appended to a local
+ * {@link PostLog} and senders return as soon as their records are on disk, the posts are
+ * stored into the caches afterwards and show up with a delay. Posts not yet stored are replayed
+ * from the log on startup, except for those deleted meanwhile (see {@link #deleted(PostKey)}).
+ * Logged posts failing to store are retried up to <code>chunchun.post.log.retries</code> times
+ * and then given up, so that one bad post does not keep the log from being applied. Should the
+ * log be full, senders wait for the commit as without it.
+ * <p>
+ * Disabled unless <code>chunchun.post.coalesce</code> is set to true or the log is configured.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+@ApplicationScoped
+public class PostCoalescer {
+
+   private static final boolean ENABLED = Boolean.getBoolean("chunchun.post.coalesce");
+   private static final int DELAY = Integer.getInteger("chunchun.post.coalesce.delay", 5);
+   private static final int MAX_BATCH = Integer.getInteger("chunchun.post.coalesce.batch", 200);
+   private static final String LOG_FILE = System.getProperty("chunchun.post.log");
+   private static final int LOG_SIZE = Integer.getInteger("chunchun.post.log.size", 64 * 1024 * 1024);
+   private static final int LOG_RETRIES = Integer.getInteger("chunchun.post.log.retries", 3);
+
+   private final Logger log = Logger.getLogger(this.getClass().getName());
+
+   @Inject
+   private CacheContainerProvider provider;
+
+   private final boolean enabled;
+   private final long delayNanos;
+   private final int maxBatch;
+   private final BlockingQueue<Send> queue = new LinkedBlockingQueue<Send>();
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong sends = new AtomicLong();
+   private Thread committer;
+   private volatile boolean stopped;
+
+   private final File logFile;
+   private final int logSize;
+   private volatile PostLog postLog;
+
+   public PostCoalescer() {
+      this(null, ENABLED, DELAY, MAX_BATCH, LOG_FILE == null ? null : new File(LOG_FILE), LOG_SIZE);
+   }
+
+   public PostCoalescer(CacheContainerProvider provider, boolean enabled, long delay, int maxBatch) {
+      this(provider, enabled, delay, maxBatch, null, 0);
+   }
+
+   public PostCoalescer(CacheContainerProvider provider, boolean enabled, long delay, int maxBatch, File logFile, int logSize) {
+      this.provider = provider;
+      this.enabled = enabled;
+      this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+      this.maxBatch = maxBatch;
+      this.logFile = logFile;
+      this.logSize = logSize;
+   }
+
+   public boolean isEnabled() {
+      return enabled || logFile != null;
+   }
+
+   /*
+    * Opens the post log on first use and queues posts not stored before the last shutdown,
+    * returns null if there is no log. Called on startup so that replay does not wait for a post.
+    */
+   public PostLog openLog() {
+      PostLog current = postLog;
+      if (current != null || logFile == null) {
+         return current;
+      }
+      synchronized (this) {
+         if (postLog == null) {
+            current = new PostLog(logFile, logSize);
+            List<PostLog.Entry> entries = current.unapplied();
+            if (!entries.isEmpty()) {
+               log.info("replaying " + entries.size() + " posts from " + logFile);
+            }
+            startCommitter();
+            for (PostLog.Entry entry : entries) {
+               Send send = new Send(entry.getPost().getOwner(), Collections.singletonList(entry.getPost()), true);
+               send.log = current;
+               send.logEnd = entry.getEnd();
+               queue.add(send);
+            }
+            // published after the replayed posts are queued, new ones have to go after them
+            postLog = current;
+         }
+         return postLog;
+      }
+   }
+
+   /*
+    * Queues the messages and waits until they are committed or logged, failures are rethrown
+    */
+   public void send(String username, List<String> messages) {
+      if (stopped) {
+         throw new IllegalStateException("post coalescer stopped");
+      }
+      startCommitter();
+      List<Post> posts = new ArrayList<Post>(messages.size());
+      for (String message : messages) {
+         posts.add(new Post(username, message));
+      }
+      Send send = new Send(username, posts, false);
+      PostLog current = openLog();
+      if (current != null) {
+         long records;
+         synchronized (current) {
+            // queued in the order of the log so that the applied position only grows
+            send.logEnd = current.append(posts);
+            records = current.getAppendedRecords();
+            if (send.logEnd != PostLog.NONE) {
+               send.log = current;
+               queue.add(send);
+            }
+         }
+         if (send.logEnd != PostLog.NONE) {
+            current.sync(records);
+            return;
+         }
+         // log full, wait for the commit instead
+      }
+      queue.add(send);
+      try {
+         send.done.await();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("interrupted while waiting for posts of " + username + " to commit", e);
+      }
+      if (send.failure != null) {
+         throw new RuntimeException("failed to send posts of " + username, send.failure);
+      }
+   }
+
+   /*
+    * Records the deletion of a post in the log, so that it is not brought back should its
+    * record be replayed. Called before the post is removed.
+    */
+   public void deleted(PostKey key) {
+      PostLog current = openLog();
+      if (current != null && current.appendDeletion(key) != PostLog.NONE) {
+         current.sync(current.getAppendedRecords());
+      }
+   }
+
+   public long getBatches() {
+      return batches.get();
+   }
+
+   public long getSends() {
+      return sends.get();
+   }
+
+   @PreDestroy
+   public synchronized void stop() {
+      stopped = true;
+      if (committer != null) {
+         committer.interrupt();
+         try {
+            committer.join(1000);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         committer = null;
+         log.log(Level.FINE, "post coalescer committed {0} sends in {1} transactions", new Object[] {sends.get(), batches.get()});
+      }
+      if (postLog != null) {
+         postLog.close();
+         postLog = null;
+      }
+   }
+
+   private synchronized void startCommitter() {
+      if (committer != null) {
+         return;
+      }
+      committer = new Thread("chunchun-post-coalescer") {
+         @Override
+         public void run() {
+            commitLoop();
+         }
+      };
+      committer.setDaemon(true);
+      committer.start();
+   }
+
+   private void commitLoop() {
+      List<Send> batch = new ArrayList<Send>();
+      try {
+         while (!stopped) {
+            batch.add(queue.take());
+            long deadline = System.nanoTime() + delayNanos;
+            while (batch.size() < maxBatch) {
+               long left = deadline - System.nanoTime();
+               Send next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+               if (next == null) break;
+               batch.add(next);
+            }
+            commit(batch);
+            batch.clear();
+         }
+      } catch (InterruptedException e) {
+         // stopped
+      }
+      queue.drainTo(batch);
+      for (Send send : batch) {
+         send.finish(new IllegalStateException("post coalescer stopped"));
+      }
+   }
+
+   private void commit(List<Send> batch) {
+      commitOwned(batch);
+      // nobody waits for logged posts, retry them before they are given up
+      for (int retry = 0; retry < LOG_RETRIES; retry++) {
+         List<Send> failed = new ArrayList<Send>();
+         for (Send send : batch) {
+            if (send.log != null && send.failure != null && !send.dropped) failed.add(send);
+         }
+         if (failed.isEmpty()) break;
+         commitOwned(failed);
+      }
+      markApplied(batch);
+   }
+
+   /*
+    * Moves the applied position of the log past the stored posts and those given up
+    */
+   private void markApplied(List<Send> batch) {
+      PostLog applied = null;
+      int end = PostLog.NONE;
+      for (Send send : batch) {
+         if (send.log == null) continue;
+         if (send.dropped) {
+            log.warning("dropping logged posts of unknown user " + send.username);
+         } else if (send.failure != null) {
+            log.log(Level.SEVERE, "giving up on " + send.posts.size() + " logged posts of " + send.username + " after "
+                  + LOG_RETRIES + " retries", send.failure);
+         }
+         applied = send.log;
+         end = send.logEnd;
+      }
+      if (applied != null) {
+         applied.applied(end);
+      }
+   }
+
+   private void commitOwned(List<Send> batch) {
+      Map<String, List<Send>> byOwner = new LinkedHashMap<String, List<Send>>();
+      for (Send send : batch) {
+         List<Send> owned = byOwner.get(send.username);
+         if (owned == null) {
+            owned = new ArrayList<Send>();
+            byOwner.put(send.username, owned);
+         }
+         owned.add(send);
+      }
+      // unknown users never succeed, drop them for good before anything is written instead of retrying
+      BasicCache<String, Object> userCache = provider.getCacheContainer().getCache("userCache");
+      for (Iterator<Map.Entry<String, List<Send>>> i = byOwner.entrySet().iterator(); i.hasNext();) {
+         Map.Entry<String, List<Send>> owned = i.next();
+         if (userCache.get(owned.getKey()) == null) {
+            for (Send send : owned.getValue()) {
+               send.dropped = true;
+            }
+            finish(owned.getValue(), new IllegalStateException("user " + owned.getKey() + " not found"));
+            i.remove();
+         }
+      }
+      if (byOwner.isEmpty()) {
+         return;
+      }
+      try {
+         write(byOwner);
+         batches.incrementAndGet();
+         finishAll(byOwner, null);
+      } catch (Exception e) {
+         if (byOwner.size() == 1) {
+            finishAll(byOwner, e);
+            return;
+         }
+         log.log(Level.FINE, "batch of " + batch.size() + " sends failed, retrying per owner", e);
+         for (Map.Entry<String, List<Send>> owned : byOwner.entrySet()) {
+            Map<String, List<Send>> single = new LinkedHashMap<String, List<Send>>();
+            single.put(owned.getKey(), owned.getValue());
+            try {
+               write(single);
+               batches.incrementAndGet();
+               finish(owned.getValue(), null);
+            } catch (Exception e1) {
+               finish(owned.getValue(), e1);
+            }
+         }
+      }
+   }
+
+   private void write(Map<String, List<Send>> byOwner) throws Exception {
+      BasicCache<String, Object> userCache = provider.getCacheContainer().getCache("userCache");
+      BasicCache<PostKey, Object> postCache = provider.getCacheContainer().getCache("postCache");
+      TransactionManager tm = ((Cache<String, Object>) userCache).getAdvancedCache().getTransactionManager();
+      if (tm != null) tm.begin();
+      try {
+         for (Map.Entry<String, List<Send>> owned : byOwner.entrySet()) {
+            User u = (User) userCache.get(owned.getKey());
+            if (u == null) {
+               throw new IllegalStateException("user " + owned.getKey() + " not found");
+            }
+            // changed below, the stored instance must stay as it is should the transaction fail
+            u = u.copy();
+            List<Post> posts = new ArrayList<Post>();
+            for (Send send : owned.getValue()) {
+               for (Post t : send.posts) {
+                  // stored before the log was marked applied
+                  if (send.replayed && postCache.get(t.getKey()) != null) continue;
+                  t.setOwnerName(u.getName());
+                  posts.add(t);
+               }
+            }
+            if (posts.isEmpty()) continue;
+            PostBatch.addPosts(provider, u, posts);
+            userCache.replace(u.getUsername(), u);
+         }
+         if (tm != null) tm.commit();
+      } catch (Exception e) {
+         if (tm != null) {
+            try {
+               tm.rollback();
+            } catch (Exception e1) {
+               log.log(Level.SEVERE, "failed to rollback failed transaction to send posts", e1);
+            }
+         }
+         throw e;
+      }
+   }
+
+   private void finishAll(Map<String, List<Send>> byOwner, Throwable failure) {
+      for (List<Send> owned : byOwner.values()) {
+         finish(owned, failure);
+      }
+   }
+
+   private void finish(List<Send> sent, Throwable failure) {
+      if (failure == null) {
+         sends.addAndGet(sent.size());
+      }
+      for (Send send : sent) {
+         send.finish(failure);
+      }
+   }
+
+   private static class Send {
+
+      private final String username;
+      private final List<Post> posts;
+      private final boolean replayed;
+      private final CountDownLatch done = new CountDownLatch(1);
+      private volatile Throwable failure;
+      // log holding the posts and end of their records, null if not logged
+      private PostLog log;
+      private int logEnd = PostLog.NONE;
+      // failed for good, e.g. the user is gone
+      private boolean dropped;
+
+      private Send(String username, List<Post> posts, boolean replayed) {
+         this.username = username;
+         this.posts = posts;
+         this.replayed = replayed;
+      }
+
+      private void finish(Throwable failure) {
+         this.failure = failure;
+         done.countDown();
+      }
+   }
+}
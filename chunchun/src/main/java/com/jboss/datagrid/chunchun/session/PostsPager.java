@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.session;
+
+import java.io.Serializable;
+import java.util.LinkedList;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+/**
+ * Remembers which page of a user's posts is displayed. Pages are addressed by the key of the
+ * last post of the previous page so that only the posts of the displayed page need to be
+ * looked up, the cursors of the newer pages are kept to be able to go back.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostsPager implements Serializable {
+
+   private static final long serialVersionUID = -3402365410745815316L;
+
+   private String username;
+
+   // null for the newest page
+   private PostKey cursor;
+
+   // cursor of the next older page, null if there are no older posts
+   private PostKey nextCursor;
+
+   private LinkedList<PostKey> newerCursors = new LinkedList<PostKey>();
+
+   /*
+    * Returns cursor of the displayed page, starts from the newest page when the user changes
+    */
+   public PostKey getCursor(String username) {
+      if (!username.equals(this.username)) {
+         reset();
+         this.username = username;
+      }
+      return cursor;
+   }
+
+   public void setNextCursor(PostKey nextCursor) {
+      this.nextCursor = nextCursor;
+   }
+
+   public void older() {
+      if (nextCursor != null) {
+         newerCursors.addLast(cursor);
+         cursor = nextCursor;
+         nextCursor = null;
+      }
+   }
+
+   public void newer() {
+      if (!newerCursors.isEmpty()) {
+         cursor = newerCursors.removeLast();
+      }
+   }
+
+   public boolean isOlderAvailable() {
+      return nextCursor != null;
+   }
+
+   public boolean isNewerAvailable() {
+      return !newerCursors.isEmpty();
+   }
+
+   public void reset() {
+      username = null;
+      cursor = null;
+      nextCursor = null;
+      newerCursors.clear();
+   }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.session;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
+
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Values that stay the same during a single request but are asked for many times while a page
+ * renders - the logged in user and whether recent posts are loaded. Beans changing them have to
+ * invalidate them. Number of cache lookups saved is logged at FINE level.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+@RequestScoped
+public class RequestMemo {
+
+   private static final Logger log = Logger.getLogger(RequestMemo.class.getName());
+
+   private User user;
+
+   // number of shown posts recent posts were loaded for, -1 if not yet
+   private int recentPostsLimit = -1;
+
+   private int userLookups;
+   private int userLookupsSaved;
+   private int recentPostsLookups;
+   private int recentPostsLookupsSaved;
+
+   /*
+    * Returns the user looked up during this request or null if it has to be looked up
+    */
+   public User getUser(String username) {
+      userLookups++;
+      if (user != null && user.getUsername().equals(username)) {
+         userLookupsSaved++;
+         return user;
+      }
+      return null;
+   }
+
+   public void setUser(User user) {
+      this.user = user;
+   }
+
+   public void invalidateUser() {
+      this.user = null;
+   }
+
+   /*
+    * True if recent posts were already loaded for the given number of shown posts
+    */
+   public boolean isRecentPostsLoaded(int limit) {
+      recentPostsLookups++;
+      if (recentPostsLimit == limit) {
+         recentPostsLookupsSaved++;
+         return true;
+      }
+      return false;
+   }
+
+   public void setRecentPostsLoaded(int limit) {
+      this.recentPostsLimit = limit;
+   }
+
+   public void invalidateRecentPosts() {
+      this.recentPostsLimit = -1;
+   }
+
+   @PreDestroy
+   public void report() {
+      if (log.isLoggable(Level.FINE) && (userLookups > 0 || recentPostsLookups > 0)) {
+         log.fine("user lookups: " + userLookups + " (" + userLookupsSaved + " saved), recent posts lookups: "
+               + recentPostsLookups + " (" + recentPostsLookupsSaved + " saved)");
+      }
+   }
+}
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.imageio.ImageIO;
+
+import org.infinispan.api.BasicCache;
+
+/**
+ * Content addressed avatar references of the form <code>hash/avatar</code>. Pages link avatars
+ * as <code>/avatar/hash/avatar</code> so that browsers may keep them forever - a changed image
+ * gets a new hash and therefore a new URL.
+ * <p>
+ * Avatars are stored resized to each size they are displayed in, each variant under its own
+ * content addressed key, see {@link #store(BasicCache, String, byte[])}. Pages link them as
+ * <code>/avatar/size/hash/avatar</code>.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class Avatars {
+
+   // used in references of avatars not hashed yet, such are never cached for long
+   public static final String NO_HASH = "-";
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   // 64 bits of SHA-1 are enough to tell versions of an avatar apart
+   private static final int HASH_BYTES = 8;
+
+   // sizes avatars are displayed in, see img.avatar* in style.css
+   public static final int LARGE = 110;
+   public static final int SMALL = 50;
+   public static final int SMALLER = 30;
+
+   private static final int[] SIZES = {LARGE, SMALL, SMALLER};
+
+   /*
+    * Import pipeline of an avatar image: stores a variant of each displayed size under its
+    * content addressed key and the largest one also under the avatar name for references without
+    * hash. Returns the hash to be set to the users having this avatar.
+    */
+   public static String store(BasicCache<String, Object> avatars, String avatar, byte[] image) {
+      String hash = hash(image);
+      byte[] largest = null;
+      for (int size : SIZES) {
+         byte[] variant = resize(image, size);
+         avatars.put(variantKey(hash, size), variant);
+         if (size == LARGE) largest = variant;
+      }
+      avatars.put(avatar, largest);
+      return hash;
+   }
+
+   public static String variantKey(String hash, int size) {
+      return hash + "@" + size;
+   }
+
+   /*
+    * Scales the image to a size x size JPEG the way it is displayed, smaller images are kept as
+    * they are.
+    */
+   public static byte[] resize(byte[] image, int size) {
+      try {
+         BufferedImage current = ImageIO.read(new ByteArrayInputStream(image));
+         if (current == null) {
+            throw new RuntimeException("Unsupported avatar image format");
+         }
+         int width = current.getWidth();
+         int height = current.getHeight();
+         if (width <= size && height <= size) {
+            return image;
+         }
+         // bilinear scaling by at most a half at a time, otherwise it skips pixels
+         while (width > size || height > size) {
+            width = Math.max(width / 2, size);
+            height = Math.max(height / 2, size);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+            current = next;
+         }
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         ImageIO.write(current, "jpg", out);
+         return out.toByteArray();
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to resize avatar", e);
+      }
+   }
+
+   public static String hash(byte[] image) {
+      byte[] digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-1").digest(image);
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException("SHA-1 not available", e);
+      }
+      char[] hex = new char[HASH_BYTES * 2];
+      for (int i = 0; i < HASH_BYTES; i++) {
+         hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+         hex[2 * i + 1] = HEX[digest[i] & 0xF];
+      }
+      return new String(hex);
+   }
+
+   public static String reference(String hash, String avatar) {
+      return (hash == null ? NO_HASH : hash) + "/" + avatar;
+   }
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.infinispan.api.BasicCache;
+
+/**
+ * Reads many keys of a cache at once. Lookups are issued through {@link BasicCache#getAsync(Object)}
+ * so that in clustered mode remote gets run in parallel instead of paying one round trip after
+ * another. At most <code>parallelism</code> lookups are in flight at any time.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class BatchCacheReader {
+
+   private BatchCacheReader() {
+      super();
+   }
+
+   /*
+    * Returns found entries in the order of the given keys, missing keys are left out.
+    */
+   public static <K, V> Map<K, V> getAll(BasicCache<K, V> cache, Collection<? extends K> keys, int parallelism) {
+      Map<K, V> result = new LinkedHashMap<K, V>();
+      if (parallelism <= 1 || keys.size() <= 1) {
+         for (K key : keys) {
+            V value = cache.get(key);
+            if (value != null) result.put(key, value);
+         }
+         return result;
+      }
+      LinkedList<K> pendingKeys = new LinkedList<K>();
+      LinkedList<Future<V>> pendingLookups = new LinkedList<Future<V>>();
+      for (K key : keys) {
+         if (pendingLookups.size() == parallelism) {
+            collect(pendingKeys.removeFirst(), pendingLookups.removeFirst(), result);
+         }
+         pendingKeys.add(key);
+         pendingLookups.add(cache.getAsync(key));
+      }
+      while (!pendingLookups.isEmpty()) {
+         collect(pendingKeys.removeFirst(), pendingLookups.removeFirst(), result);
+      }
+      return result;
+   }
+
+   private static <K, V> void collect(K key, Future<V> lookup, Map<K, V> result) {
+      V value;
+      try {
+         value = lookup.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while reading " + key, e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException("Unable to read " + key, e.getCause());
+      }
+      if (value != null) result.put(key, value);
+   }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.infinispan.configuration.global.SerializationConfigurationBuilder;
+import org.infinispan.io.UnsignedNumeric;
+import org.infinispan.marshall.AdvancedExternalizer;
+
+import com.jboss.datagrid.chunchun.model.FollowChunk;
+import com.jboss.datagrid.chunchun.model.FollowChunkKey;
+import com.jboss.datagrid.chunchun.model.FollowCounts;
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostBucket;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Registry of the externalizers of chunchun model classes and the compact encodings they
+ * share - numbers as varints and strings as varint length prefixed UTF-8. The ids have to match
+ * the ones in infinispan-*.xml configurations.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class ChunchunExternalizers {
+
+   // out of the ranges reserved by Infinispan and its modules
+   public static final int POST_KEY = 3500;
+   public static final int POST = 3501;
+   public static final int USER = 3502;
+   public static final int TIMELINE = 3503;
+   public static final int POST_BUCKET_KEY = 3504;
+   public static final int POST_BUCKET = 3505;
+   public static final int FOLLOW_CHUNK_KEY = 3506;
+   public static final int FOLLOW_CHUNK = 3507;
+   public static final int FOLLOW_COUNTS = 3508;
+
+   private static final long LOW_BITS_MASK = (1L << PostIds.TIME_SHIFT) - 1;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private ChunchunExternalizers() {
+      super();
+   }
+
+   public static List<AdvancedExternalizer<?>> getAll() {
+      return Arrays.<AdvancedExternalizer<?>>asList(new PostKey.Externalizer(), new Post.Externalizer(),
+            new User.Externalizer(), new Timeline.Externalizer(), new PostBucketKey.Externalizer(),
+            new PostBucket.Externalizer(), new FollowChunkKey.Externalizer(), new FollowChunk.Externalizer(),
+            new FollowCounts.Externalizer());
+   }
+
+   public static void register(SerializationConfigurationBuilder serialization) {
+      for (AdvancedExternalizer<?> externalizer : getAll()) {
+         serialization.addAdvancedExternalizer(externalizer);
+      }
+   }
+
+   /*
+    * Writes null as 0, otherwise UTF-8 length + 1 followed by the bytes
+    */
+   public static void writeString(ObjectOutput out, String s) throws IOException {
+      if (s == null) {
+         UnsignedNumeric.writeUnsignedInt(out, 0);
+         return;
+      }
+      byte[] bytes = s.getBytes(UTF8);
+      UnsignedNumeric.writeUnsignedInt(out, bytes.length + 1);
+      out.write(bytes);
+   }
+
+   public static String readString(ObjectInput in) throws IOException {
+      int length = UnsignedNumeric.readUnsignedInt(in);
+      if (length == 0) {
+         return null;
+      }
+      byte[] bytes = new byte[length - 1];
+      in.readFully(bytes);
+      return new String(bytes, UTF8);
+   }
+
+   /*
+    * Zig-zag encoded so that small negative numbers are short as well
+    */
+   public static void writeSignedLong(ObjectOutput out, long value) throws IOException {
+      UnsignedNumeric.writeUnsignedLong(out, (value << 1) ^ (value >> 63));
+   }
+
+   public static long readSignedLong(ObjectInput in) throws IOException {
+      long value = UnsignedNumeric.readUnsignedLong(in);
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   /*
+    * Post ids are written as the signed time part and the node and sequence part separately, both
+    * are short for recent posts of a single node.
+    */
+   public static void writePostId(ObjectOutput out, long id) throws IOException {
+      writeSignedLong(out, id >> PostIds.TIME_SHIFT);
+      UnsignedNumeric.writeUnsignedInt(out, (int) (id & LOW_BITS_MASK));
+   }
+
+   public static long readPostId(ObjectInput in) throws IOException {
+      return readSignedLong(in) << PostIds.TIME_SHIFT | UnsignedNumeric.readUnsignedInt(in);
+   }
+
+   /*
+    * Lists of post keys are sorted and mostly of a single owner (posts of a user), so the owner
+    * is written once if possible and the time parts of ids as differences to the previous one.
+    */
+   public static void writePostKeys(ObjectOutput out, List<PostKey> keys) throws IOException {
+      UnsignedNumeric.writeUnsignedInt(out, keys.size());
+      if (keys.isEmpty()) {
+         return;
+      }
+      String owner = keys.get(0).getOwner();
+      boolean singleOwner = true;
+      for (PostKey key : keys) {
+         if (!owner.equals(key.getOwner())) {
+            singleOwner = false;
+            break;
+         }
+      }
+      out.writeBoolean(singleOwner);
+      if (singleOwner) {
+         writeString(out, owner);
+      }
+      long previousTime = 0;
+      for (PostKey key : keys) {
+         if (!singleOwner) {
+            writeString(out, key.getOwner());
+         }
+         long time = key.getId() >> PostIds.TIME_SHIFT;
+         writeSignedLong(out, time - previousTime);
+         UnsignedNumeric.writeUnsignedInt(out, (int) (key.getId() & LOW_BITS_MASK));
+         previousTime = time;
+      }
+   }
+
+   public static List<PostKey> readPostKeys(ObjectInput in) throws IOException {
+      int size = UnsignedNumeric.readUnsignedInt(in);
+      List<PostKey> keys = new ArrayList<PostKey>(size);
+      if (size == 0) {
+         return keys;
+      }
+      boolean singleOwner = in.readBoolean();
+      String owner = singleOwner ? readString(in) : null;
+      long time = 0;
+      for (int i = 0; i < size; i++) {
+         String keyOwner = singleOwner ? owner : readString(in);
+         time += readSignedLong(in);
+         keys.add(PostKey.withId(keyOwner, time << PostIds.TIME_SHIFT | UnsignedNumeric.readUnsignedInt(in)));
+      }
+      return keys;
+   }
+}
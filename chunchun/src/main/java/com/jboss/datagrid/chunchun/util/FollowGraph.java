@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.model.FollowChunk;
+import com.jboss.datagrid.chunchun.model.FollowChunkKey;
+import com.jboss.datagrid.chunchun.model.FollowCounts;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Who watches whom. Both directions of every edge are stored as adjacency lists split into
+ * <code>CHUNKS</code> chunks by the hash of the other user, so starting to watch a user with
+ * a huge number of watchers reads and writes only a small part of its watchers and checking
+ * a single edge is a single lookup. Counts are kept in a separate small entry per user and
+ * chunk, so a follow writes the entries of the two chunks it changes only and no entry of a
+ * popular user is written by all of its watchers. The masks of a user's non-empty chunks are
+ * kept in one more entry, written only when a chunk becomes non-empty or empty, so that reads
+ * look at the non-empty chunks only. A follow sets a missing bit even if its chunk was not
+ * empty, which brings back a bit lost to a concurrent change of the masks. The user entries
+ * are not touched at all. Modifying methods are expected to run inside a transaction.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class FollowGraph {
+
+   public static final String FOLLOWER_CACHE_NAME = "followerCache";
+
+   public static final String FOLLOWING_CACHE_NAME = "followingCache";
+
+   public static final String COUNT_CACHE_NAME = "followCountCache";
+
+   public static final String MASK_CACHE_NAME = "followMaskCache";
+
+   // at most 64 to fit the chunk masks, must not be changed for existing data
+   public static final int CHUNKS = Math.max(1, Math.min(64, Integer.getInteger("chunchun.follow.chunks", 64)));
+
+   private final CacheContainerProvider provider;
+
+   public FollowGraph(CacheContainerProvider provider) {
+      this.provider = provider;
+   }
+
+   /*
+    * Returns false if <code>follower</code> already follows <code>followee</code>
+    */
+   public boolean follow(String follower, String followee) {
+      if (follower.equals(followee)) {
+         return false;
+      }
+      FollowChunkKey followingKey = new FollowChunkKey(follower, chunkOf(followee));
+      FollowChunk following = getChunk(getFollowingCache(), followingKey);
+      if (following.contains(followee)) {
+         return false;
+      }
+      getFollowingCache().put(followingKey, following.with(followee));
+      FollowChunkKey followerKey = new FollowChunkKey(followee, chunkOf(follower));
+      getFollowerCache().put(followerKey, getChunk(getFollowerCache(), followerKey).with(follower));
+      putCounts(followingKey, getCounts(followingKey).withFollowingAdded(followingKey.getChunk()));
+      putCounts(followerKey, getCounts(followerKey).withFollowerAdded(followerKey.getChunk()));
+      markChunk(follower, followingKey.getChunk(), false, true);
+      markChunk(followee, followerKey.getChunk(), true, true);
+      return true;
+   }
+
+   /*
+    * Returns false if <code>follower</code> did not follow <code>followee</code>
+    */
+   public boolean unfollow(String follower, String followee) {
+      FollowChunkKey followingKey = new FollowChunkKey(follower, chunkOf(followee));
+      FollowChunk following = getChunk(getFollowingCache(), followingKey);
+      if (!following.contains(followee)) {
+         return false;
+      }
+      following = following.without(followee);
+      putChunk(getFollowingCache(), followingKey, following);
+      FollowChunkKey followerKey = new FollowChunkKey(followee, chunkOf(follower));
+      FollowChunk followers = getChunk(getFollowerCache(), followerKey).without(follower);
+      putChunk(getFollowerCache(), followerKey, followers);
+      putCounts(followingKey, getCounts(followingKey).withFollowingRemoved(followingKey.getChunk()));
+      putCounts(followerKey, getCounts(followerKey).withFollowerRemoved(followerKey.getChunk()));
+      markChunk(follower, followingKey.getChunk(), false, !following.isEmpty());
+      markChunk(followee, followerKey.getChunk(), true, !followers.isEmpty());
+      return true;
+   }
+
+   public boolean isFollowing(String follower, String followee) {
+      return getChunk(getFollowingCache(), new FollowChunkKey(follower, chunkOf(followee))).contains(followee);
+   }
+
+   public List<String> getFollowers(String username) {
+      return getFollowers(username, getMasks(username));
+   }
+
+   /*
+    * Same as above with the chunk masks of counts read before, e.g. by getCounts
+    */
+   public List<String> getFollowers(String username, FollowCounts counts) {
+      return getAll(getFollowerCache(), username, counts.getFollowerChunks());
+   }
+
+   public List<String> getFollowing(String username) {
+      return getFollowing(username, getMasks(username));
+   }
+
+   public List<String> getFollowing(String username, FollowCounts counts) {
+      return getAll(getFollowingCache(), username, counts.getFollowingChunks());
+   }
+
+   /*
+    * Sums the counts of the non-empty chunks, a lookup of the masks and a single getAll
+    */
+   public FollowCounts getCounts(String username) {
+      FollowCounts masks = getMasks(username);
+      FollowCounts counts = FollowCounts.NONE;
+      for (Object chunkCounts : provider.getAll(getCountCache(), keys(username, masks.getFollowerChunks() | masks.getFollowingChunks())).values()) {
+         counts = counts.plus((FollowCounts) chunkCounts);
+      }
+      return counts;
+   }
+
+   static int chunkOf(String username) {
+      return (username.hashCode() & Integer.MAX_VALUE) % CHUNKS;
+   }
+
+   private List<String> getAll(BasicCache<FollowChunkKey, Object> cache, String username, long chunks) {
+      List<String> usernames = new ArrayList<String>();
+      for (Object chunk : provider.getAll(cache, keys(username, chunks)).values()) {
+         usernames.addAll(((FollowChunk) chunk).getUsernames());
+      }
+      return usernames;
+   }
+
+   private static FollowChunk getChunk(BasicCache<FollowChunkKey, Object> cache, FollowChunkKey key) {
+      FollowChunk chunk = (FollowChunk) cache.get(key);
+      return chunk == null ? FollowChunk.EMPTY : chunk;
+   }
+
+   private static List<FollowChunkKey> keys(String username, long chunks) {
+      List<FollowChunkKey> keys = new ArrayList<FollowChunkKey>(Long.bitCount(chunks));
+      for (int chunk = 0; chunk < CHUNKS; chunk++) {
+         if ((chunks & 1L << chunk) != 0) keys.add(new FollowChunkKey(username, chunk));
+      }
+      return keys;
+   }
+
+   private FollowCounts getMasks(String username) {
+      FollowCounts masks = (FollowCounts) getMaskCache().get(username);
+      return masks == null ? FollowCounts.NONE : masks;
+   }
+
+   /*
+    * Writes the masks entry only if the bit of the chunk changes
+    */
+   private void markChunk(String username, int chunk, boolean follower, boolean nonEmpty) {
+      FollowCounts masks = getMasks(username);
+      long chunks = follower ? masks.getFollowerChunks() : masks.getFollowingChunks();
+      if (((chunks & 1L << chunk) != 0) == nonEmpty) {
+         return;
+      }
+      masks = follower ? masks.withFollowerChunk(chunk, nonEmpty) : masks.withFollowingChunk(chunk, nonEmpty);
+      if (masks.getFollowerChunks() == 0 && masks.getFollowingChunks() == 0) {
+         getMaskCache().remove(username);
+      } else {
+         getMaskCache().put(username, masks);
+      }
+   }
+
+   private FollowCounts getCounts(FollowChunkKey key) {
+      FollowCounts counts = (FollowCounts) getCountCache().get(key);
+      return counts == null ? FollowCounts.NONE : counts;
+   }
+
+   private void putCounts(FollowChunkKey key, FollowCounts counts) {
+      if (counts.isEmpty()) {
+         getCountCache().remove(key);
+      } else {
+         getCountCache().put(key, counts);
+      }
+   }
+
+   private static void putChunk(BasicCache<FollowChunkKey, Object> cache, FollowChunkKey key, FollowChunk chunk) {
+      if (chunk.isEmpty()) {
+         cache.remove(key);
+      } else {
+         cache.put(key, chunk);
+      }
+   }
+
+   private BasicCache<FollowChunkKey, Object> getFollowerCache() {
+      return provider.getCacheContainer().getCache(FOLLOWER_CACHE_NAME);
+   }
+
+   private BasicCache<FollowChunkKey, Object> getFollowingCache() {
+      return provider.getCacheContainer().getCache(FOLLOWING_CACHE_NAME);
+   }
+
+   private BasicCache<FollowChunkKey, Object> getCountCache() {
+      return provider.getCacheContainer().getCache(COUNT_CACHE_NAME);
+   }
+
+   private BasicCache<String, Object> getMaskCache() {
+      return provider.getCacheContainer().getCache(MASK_CACHE_NAME);
+   }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the manner of HdrHistogram. Values below 128 ns are counted
+ * exactly, larger ones in 64 linear buckets per power of two, so percentiles are reported
+ * within about 1.6% of the recorded value whatever its magnitude. Memory stays fixed at one
+ * counter per bucket however many values are recorded.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 7;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int HALF = SUB_BUCKETS / 2;
+   private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong errors = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+   private final AtomicLong total = new AtomicLong();
+
+   public void record(long nanos, boolean failed) {
+      if (nanos < 0) nanos = 0;
+      counts.incrementAndGet(indexOf(nanos));
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+      if (failed) errors.incrementAndGet();
+      long current = max.get();
+      while (nanos > current && !max.compareAndSet(current, nanos)) {
+         current = max.get();
+      }
+   }
+
+   /*
+    * Value in nanoseconds below which the given percent of recorded values fall, 0 if empty
+    */
+   public long getPercentile(double percent) {
+      long recorded = count.get();
+      if (recorded == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percent / 100 * recorded));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts.get(i);
+         if (seen >= rank) {
+            return Math.min(highestValueOf(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   public long getCount() {
+      return count.get();
+   }
+
+   public long getErrors() {
+      return errors.get();
+   }
+
+   public long getMax() {
+      return max.get();
+   }
+
+   public long getMean() {
+      long recorded = count.get();
+      return recorded == 0 ? 0 : total.get() / recorded;
+   }
+
+   /*
+    * Starts over, e.g. between load test runs. Values recorded meanwhile may be partly lost.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+         counts.set(i, 0);
+      }
+      count.set(0);
+      errors.set(0);
+      max.set(0);
+      total.set(0);
+   }
+
+   static int indexOf(long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }
+      // keep the highest SUB_BUCKET_BITS bits, the shift tells the power of two
+      int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+      return shift * HALF + (int) (value >>> shift);
+   }
+
+   static long highestValueOf(int index) {
+      if (index < SUB_BUCKETS) {
+         return index;
+      }
+      int shift = index / HALF - 1;
+      long mantissa = index - shift * HALF;
+      return ((mantissa + 1) << shift) - 1;
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.infinispan.api.BasicCache;
+import org.infinispan.api.BasicCacheContainer;
+
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Provider of a cache container at hand, e.g. inside a distributed task or in tests. Batched
+ * reads are done one key after another and users are read from the user cache, there is no
+ * near cache.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class LocalCacheContainerProvider implements CacheContainerProvider {
+
+   private final BasicCacheContainer container;
+
+   public LocalCacheContainerProvider(BasicCacheContainer container) {
+      this.container = container;
+   }
+
+   public BasicCacheContainer getCacheContainer() {
+      return container;
+   }
+
+   public <K, V> Map<K, V> getAll(BasicCache<K, V> cache, Collection<? extends K> keys) {
+      return BatchCacheReader.getAll(cache, keys, 1);
+   }
+
+   public User getUser(String username) {
+      return (User) container.getCache("userCache").get(username);
+   }
+
+   public UserNearCache getUserNearCache() {
+      return null;
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out slots <code>1..size</code>, each to one holder at a time, without locking. Taken
+ * slots are bits set in an array of words changed by compare-and-set. A search starts at the
+ * word the last slot was found in so that concurrent logins don't all scan the full words at
+ * the beginning.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class LoginSlots {
+
+   public static final int NONE = -1;
+
+   private static final long FULL = ~0L;
+
+   private final int size;
+
+   private final AtomicLongArray words;
+
+   // word to start searching in
+   private final AtomicInteger hint = new AtomicInteger();
+
+   public LoginSlots(int size) {
+      this.size = size;
+      this.words = new AtomicLongArray((size + 63) >>> 6);
+      if ((size & 63) != 0) {
+         // bits above size in the last word are never free
+         words.set(words.length() - 1, FULL << (size & 63));
+      }
+   }
+
+   /*
+    * Takes a free slot, NONE if all are taken
+    */
+   public int acquire() {
+      int count = words.length();
+      int start = hint.get();
+      for (int i = 0; i < count; i++) {
+         int index = start + i < count ? start + i : start + i - count;
+         long word;
+         while ((word = words.get(index)) != FULL) {
+            long bit = Long.lowestOneBit(~word);
+            if (words.compareAndSet(index, word, word | bit)) {
+               if (index != start) hint.set(index);
+               return (index << 6) + Long.numberOfTrailingZeros(bit) + 1;
+            }
+         }
+      }
+      return NONE;
+   }
+
+   /*
+    * Frees a taken slot, returns false if it was not taken
+    */
+   public boolean release(int slot) {
+      if (slot < 1 || slot > size) {
+         return false;
+      }
+      int index = (slot - 1) >>> 6;
+      long bit = 1L << (slot - 1);
+      long word;
+      do {
+         word = words.get(index);
+         if ((word & bit) == 0) {
+            return false;
+         }
+      } while (!words.compareAndSet(index, word, word & ~bit));
+      return true;
+   }
+
+   public int size() {
+      return size;
+   }
+}
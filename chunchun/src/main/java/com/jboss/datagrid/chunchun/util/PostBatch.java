@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Writes a batch of posts of one user: the posts, the user's post index and the timelines of
+ * the watchers. The watchers and their timelines are read and written once per batch instead of
+ * once per post. Timelines are changed as copies, so a rolled back batch leaves no keys of posts
+ * that were never stored. Callers are expected to run inside a transaction and to store the user
+ * afterwards, so the user entry is replaced once per batch too.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostBatch {
+
+   public static final int SIZE = Integer.getInteger("chunchun.post.batch.size", 100);
+
+   private PostBatch() {
+      super();
+   }
+
+   /*
+    * Splits messages into batches of at most SIZE
+    */
+   public static List<List<String>> split(List<String> messages) {
+      List<List<String>> batches = new ArrayList<List<String>>();
+      for (int from = 0; from < messages.size(); from += SIZE) {
+         batches.add(messages.subList(from, Math.min(messages.size(), from + SIZE)));
+      }
+      return batches;
+   }
+
+   public static void addPosts(CacheContainerProvider provider, User user, List<Post> posts) {
+      BasicCache<PostKey, Object> postCache = provider.getCacheContainer().getCache("postCache");
+      BasicCache<PostBucketKey, Object> postIndex = provider.getCacheContainer().getCache(UserPostIndex.CACHE_NAME);
+      Map<PostKey, Post> entries = new HashMap<PostKey, Post>();
+      for (Post post : posts) {
+         entries.put(post.getKey(), post);
+         UserPostIndex.addPost(user, post.getKey(), postIndex);
+      }
+      postCache.putAll(entries);
+
+      // fan out to watchers' timelines, not yet materialized ones will be built on first read
+      BasicCache<String, Object> timelineCache = provider.getCacheContainer().getCache("timelineCache");
+      for (String watcher : new FollowGraph(provider).getFollowers(user.getUsername())) {
+         Timeline timeline = (Timeline) timelineCache.get(watcher);
+         if (timeline != null) {
+            timeline = timeline.copy();
+            for (Post post : posts) {
+               timeline.add(post.getKey());
+            }
+            timelineCache.put(watcher, timeline);
+         }
+      }
+   }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64-bit post ids sortable by time of post. An id is made of milliseconds since
+ * {@link #EPOCH} (42 bits, signed so that older times are representable too), id of the node
+ * (10 bits, <code>chunchun.node.id</code> property) and a sequence number (12 bits), so ids
+ * generated on different nodes or in the same millisecond never collide.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostIds {
+
+   // 2013-01-01T00:00:00Z
+   public static final long EPOCH = 1356998400000L;
+
+   public static final int SEQUENCE_BITS = 12;
+   public static final int NODE_BITS = 10;
+   public static final int TIME_SHIFT = SEQUENCE_BITS + NODE_BITS;
+
+   private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+   public static final int NODE = Integer.getInteger("chunchun.node.id", 0) & ((1 << NODE_BITS) - 1);
+
+   private static final AtomicLong lastId = new AtomicLong(Long.MIN_VALUE);
+
+   private static final AtomicInteger sequence = new AtomicInteger();
+
+   private PostIds() {
+      super();
+   }
+
+   /*
+    * Returns an id of a post made right now, greater than any id returned before. When the
+    * sequence of a millisecond is exhausted (or the clock goes back) the id is taken from the
+    * following millisecond instead of waiting for it.
+    */
+   public static long next() {
+      long floor = firstId(System.currentTimeMillis()) | ((long) NODE << SEQUENCE_BITS);
+      while (true) {
+         long last = lastId.get();
+         long id = last + 1;
+         if ((id & SEQUENCE_MASK) == 0) {
+            id = ((last >> TIME_SHIFT) + 1) << TIME_SHIFT | ((long) NODE << SEQUENCE_BITS);
+         }
+         id = Math.max(id, floor);
+         if (lastId.compareAndSet(last, id)) {
+            return id;
+         }
+      }
+   }
+
+   /*
+    * Returns an id of a post made at the given time, e.g. when importing older posts. Ids of the
+    * same millisecond differ as long as less than 4096 of them are generated on this node.
+    */
+   public static long next(long timeOfPost) {
+      return firstId(timeOfPost) | ((long) NODE << SEQUENCE_BITS) | (sequence.getAndIncrement() & SEQUENCE_MASK);
+   }
+
+   /*
+    * The lowest id of the given millisecond
+    */
+   public static long firstId(long timeOfPost) {
+      return (timeOfPost - EPOCH) << TIME_SHIFT;
+   }
+
+   public static long timeOf(long id) {
+      return (id >> TIME_SHIFT) + EPOCH;
+   }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+/**
+ * Merges several newest-first post key iterators (e.g. {@link UserPostKeyIterator} of each
+ * watched user) into a single newest-first list. The heap holds only the current head of each
+ * iterator so taking <code>limit</code> posts out of <code>k</code> iterators costs
+ * O(k + limit * log k) comparisons and iterators are advanced only as far as needed.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostKeyMerger {
+
+   private static final Comparator<Head> NEWEST_FIRST = new Comparator<Head>() {
+      @Override
+      public int compare(Head arg0, Head arg1) {
+         return PostKeyTimeComparator.getInstance().compare(arg1.key, arg0.key);
+      }
+   };
+
+   private PostKeyMerger() {
+      super();
+   }
+
+   public static List<PostKey> merge(Collection<? extends Iterator<PostKey>> iterators, int limit) {
+      return merge(iterators, limit, Long.MIN_VALUE);
+   }
+
+   /*
+    * Merges only posts not older than <code>since</code>, iterators are not advanced past that.
+    */
+   public static List<PostKey> merge(Collection<? extends Iterator<PostKey>> iterators, int limit, long since) {
+      List<PostKey> result = new ArrayList<PostKey>(Math.max(limit, 0));
+      if (iterators.isEmpty() || limit <= 0) {
+         return result;
+      }
+      PriorityQueue<Head> heap = new PriorityQueue<Head>(iterators.size(), NEWEST_FIRST);
+      for (Iterator<PostKey> iterator : iterators) {
+         if (iterator.hasNext()) {
+            heap.add(new Head(iterator.next(), iterator));
+         }
+      }
+      while (result.size() < limit && !heap.isEmpty()) {
+         Head head = heap.poll();
+         if (head.key.getTimeOfPost() < since) {
+            // all the remaining heads are older
+            break;
+         }
+         result.add(head.key);
+         if (head.iterator.hasNext()) {
+            // reuse the holder, the heap never grows over the number of iterators
+            head.key = head.iterator.next();
+            heap.add(head);
+         }
+      }
+      return result;
+   }
+
+   private static class Head {
+      private PostKey key;
+      private final Iterator<PostKey> iterator;
+
+      private Head(PostKey key, Iterator<PostKey> iterator) {
+         this.key = key;
+         this.iterator = iterator;
+      }
+   }
+}
@@ -27,6 +27,10 @@ import java.util.List;
 import com.jboss.datagrid.chunchun.model.PostKey;
 
 /**
+ * Orders posts by time of post, i.e. by their time sortable ids. Posts of the same id (made on
+ * different nodes of the same sequence) are ordered by owner so that different posts never
+ * compare as equal.
+ *
  * @author Aleksandar Kostadinov
  *
  */
@@ -40,9 +44,9 @@ public class PostKeyTimeComparator implements Comparator<PostKey> {
 
    @Override
    public int compare(PostKey arg0, PostKey arg1) {
-      if (arg0.getTimeOfPost() == arg1.getTimeOfPost()) {
-         return 0;
-      } else if (arg0.getTimeOfPost() < arg1.getTimeOfPost()) {
+      if (arg0.getId() == arg1.getId()) {
+         return arg0.getOwner().compareTo(arg1.getOwner());
+      } else if (arg0.getId() < arg1.getId()) {
          return -1;
       } else {
          return 1;
@@ -56,7 +60,7 @@ public class PostKeyTimeComparator implements Comparator<PostKey> {
    // innefficient, use only on small lists
    public static void addToListSorted(List<PostKey> list, PostKey postKey) {
       for (int i=0; i<list.size(); i++ ) {
-         if(list.get(i).getTimeOfPost() > postKey.getTimeOfPost()) {
+         if(list.get(i).getId() > postKey.getId()) {
             list.add(i, postKey);
             return;
          }
@@ -0,0 +1,305 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+/**
+ * Local append-only log of sent posts, memory mapped from a file of fixed capacity. A post is
+ * acknowledged once its record is forced to disk and stored into the caches later, records
+ * not yet applied to the caches are replayed on startup.
+ * <p>
+ * The file starts with a header of the current generation and the position up to which
+ * records are applied. Each record is <code>length, crc32, generation, post id, owner,
+ * message</code>. Once all records are applied the log starts over from the header with the
+ * next generation, so that older records left behind are never read again.
+ * <p>
+ * A post deleted while its record may not be marked applied yet gets a deletion record, a
+ * record with the message length of -1, so that it is not brought back by a replay.
+ * <p>
+ * Forcing is a group commit: a caller waiting for its record forces everything appended so
+ * far, callers that came meanwhile find their records already forced.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class PostLog {
+
+   public static final int NONE = -1;
+
+   private static final int HEADER = 8;
+   private static final int RECORD_HEADER = 8;
+   private static final int DELETED = -1;
+
+   private final RandomAccessFile file;
+   private final MappedByteBuffer buffer;
+   private final int capacity;
+
+   private int generation;
+   private int applied;
+   private int appended;
+   private long appendedRecords;
+
+   // group commit
+   private final Object forceLock = new Object();
+   private volatile long forcedRecords;
+
+   public PostLog(File path, int capacity) {
+      this.capacity = capacity;
+      try {
+         file = new RandomAccessFile(path, "rw");
+         if (file.length() < capacity) file.setLength(capacity);
+         buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to open post log " + path, e);
+      }
+      generation = buffer.getInt(0);
+      applied = Math.max(HEADER, buffer.getInt(4));
+      appended = applied;
+   }
+
+   /*
+    * Reads posts not yet applied to the caches and not deleted afterwards, must be called
+    * before any append
+    */
+   public synchronized List<Entry> unapplied() {
+      Map<PostKey, Entry> posts = new LinkedHashMap<PostKey, Entry>();
+      int position = applied;
+      while (true) {
+         Entry entry = read(position);
+         if (entry == null) break;
+         if (entry.post.getMessage() == null) {
+            posts.remove(entry.post.getKey());
+         } else {
+            posts.put(entry.post.getKey(), entry);
+         }
+         position = entry.end;
+      }
+      appended = position;
+      List<Entry> entries = new ArrayList<Entry>(posts.values());
+      if (entries.isEmpty()) {
+         if (appended != applied) applied(appended);
+      } else {
+         // applying the last post covers the deletions and deleted posts after it
+         Entry last = entries.get(entries.size() - 1);
+         entries.set(entries.size() - 1, new Entry(last.post, appended));
+      }
+      return entries;
+   }
+
+   /*
+    * Appends records of the posts and returns the end position of the last one, NONE if the log
+    * is full. Callers force them with sync(getAppendedRecords()) before acknowledging the posts.
+    */
+   public synchronized int append(List<Post> posts) {
+      List<byte[]> bodies = new ArrayList<byte[]>(posts.size());
+      int size = 0;
+      for (Post post : posts) {
+         byte[] body = body(post.getKey(), post.getMessage() == null ? "" : post.getMessage());
+         bodies.add(body);
+         size += RECORD_HEADER + body.length;
+      }
+      // keep room for the zero length marking the end
+      if (appended + size + 4 > capacity) {
+         return NONE;
+      }
+      for (byte[] body : bodies) {
+         write(body);
+      }
+      buffer.putInt(appended, 0);
+      appendedRecords += posts.size();
+      return appended;
+   }
+
+   /*
+    * Appends a deletion record of the post and returns its end position, NONE if there are no
+    * unapplied records the post could be in or if the log is full. Forced like posts.
+    */
+   public synchronized int appendDeletion(PostKey key) {
+      if (applied == appended) {
+         return NONE;
+      }
+      byte[] body = body(key, null);
+      if (appended + RECORD_HEADER + body.length + 4 > capacity) {
+         return NONE;
+      }
+      write(body);
+      buffer.putInt(appended, 0);
+      appendedRecords++;
+      return appended;
+   }
+
+   public synchronized long getAppendedRecords() {
+      return appendedRecords;
+   }
+
+   /*
+    * Returns once records up to the given count are on disk
+    */
+   public void sync(long records) {
+      synchronized (forceLock) {
+         if (forcedRecords >= records) {
+            return;
+         }
+         long target = getAppendedRecords();
+         buffer.force();
+         forcedRecords = target;
+      }
+   }
+
+   /*
+    * Marks records up to the given end position as stored into the caches
+    */
+   public synchronized void applied(int position) {
+      applied = position;
+      if (applied == appended) {
+         // all applied, start over with the next generation
+         generation++;
+         applied = HEADER;
+         appended = HEADER;
+         buffer.putInt(HEADER, 0);
+         writeHeader();
+         // new records must not be acknowledged before the header pointing to them is on disk
+         buffer.force();
+      } else {
+         writeHeader();
+      }
+   }
+
+   public synchronized int size() {
+      return appended - applied;
+   }
+
+   public void close() {
+      buffer.force();
+      try {
+         file.close();
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to close post log", e);
+      }
+   }
+
+   private void writeHeader() {
+      buffer.putLong(0, ((long) generation << 32) | (applied & 0xffffffffL));
+   }
+
+   private void write(byte[] body) {
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      buffer.position(appended);
+      buffer.putInt(body.length);
+      buffer.putInt((int) crc.getValue());
+      buffer.put(body);
+      appended = buffer.position();
+   }
+
+   /*
+    * A null message makes a deletion record
+    */
+   private byte[] body(PostKey key, String text) {
+      byte[] owner = utf8(key.getOwner());
+      byte[] message = text == null ? new byte[0] : utf8(text);
+      byte[] body = new byte[4 + 8 + 4 + owner.length + 4 + message.length];
+      ByteBuffer out = ByteBuffer.wrap(body);
+      out.putInt(generation);
+      out.putLong(key.getId());
+      out.putInt(owner.length);
+      out.put(owner);
+      out.putInt(text == null ? DELETED : message.length);
+      out.put(message);
+      return body;
+   }
+
+   private Entry read(int position) {
+      if (position + RECORD_HEADER > capacity) return null;
+      int length = buffer.getInt(position);
+      if (length <= 0 || position + RECORD_HEADER + length > capacity) return null;
+      byte[] body = new byte[length];
+      buffer.position(position + RECORD_HEADER);
+      buffer.get(body);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != buffer.getInt(position + 4)) return null;
+      ByteBuffer in = ByteBuffer.wrap(body);
+      if (in.getInt() != generation) return null;
+      long id = in.getLong();
+      String owner = string(in);
+      String message = string(in);
+      return new Entry(new Post(PostKey.withId(owner, id), message), position + RECORD_HEADER + length);
+   }
+
+   private static String string(ByteBuffer in) {
+      int length = in.getInt();
+      if (length == DELETED) return null;
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      try {
+         return new String(bytes, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static byte[] utf8(String s) {
+      try {
+         return s.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   public static class Entry {
+
+      private final Post post;
+      private final int end;
+
+      private Entry(Post post, int end) {
+         this.post = post;
+         this.end = end;
+      }
+
+      public Post getPost() {
+         return post;
+      }
+
+      /*
+       * Position to mark as applied once the post is stored
+       */
+      public int getEnd() {
+         return end;
+      }
+   }
+}
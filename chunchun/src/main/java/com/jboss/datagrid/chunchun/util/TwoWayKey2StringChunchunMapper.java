@@ -27,11 +27,13 @@ import org.infinispan.util.ByteArrayKey;
 import org.infinispan.util.logging.Log;
 import org.infinispan.util.logging.LogFactory;
 
+import com.jboss.datagrid.chunchun.model.FollowChunkKey;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
 import com.jboss.datagrid.chunchun.model.PostKey;
 
 /**
  * TwoWayKey2StringMapper supporting PostKey to allow use of stringKeyedJdbcStore
- * this class copies DefaultTwoWayKey2StringMapper and adds support for PostKey
+ * this class copies DefaultTwoWayKey2StringMapper and adds support for PostKey, PostBucketKey and FollowChunkKey
  *
  * @author Aleksandar Kostadinov
  *
@@ -48,6 +50,8 @@ public class TwoWayKey2StringChunchunMapper implements TwoWayKey2StringMapper {
    public static final char BOOLEAN_IDENTIFIER = '7';
    public static final char BYTEARRAYKEY_IDENTIFIER = '8';
    public static final char POSTKEY_IDENTIFIER = 'p';
+   public static final char POSTBUCKETKEY_IDENTIFIER = 'b';
+   public static final char FOLLOWCHUNKKEY_IDENTIFIER = 'f';
 
    private static final Log log = LogFactory.getLog(TwoWayKey2StringChunchunMapper.class);
 
@@ -62,6 +66,10 @@ public class TwoWayKey2StringChunchunMapper implements TwoWayKey2StringMapper {
          return key.toString();
       } else if (key.getClass().equals(PostKey.class)) {
          return generateString(POSTKEY_IDENTIFIER, ((PostKey) key).toDBKeyString());
+      } else if (key.getClass().equals(PostBucketKey.class)) {
+         return generateString(POSTBUCKETKEY_IDENTIFIER, ((PostBucketKey) key).toDBKeyString());
+      } else if (key.getClass().equals(FollowChunkKey.class)) {
+         return generateString(FOLLOWCHUNKKEY_IDENTIFIER, ((FollowChunkKey) key).toDBKeyString());
       } else if (key.getClass().equals(Short.class)) {
          identifier = SHORT_IDENTIFIER;
       } else if (key.getClass().equals(Byte.class)) {
@@ -93,6 +101,10 @@ public class TwoWayKey2StringChunchunMapper implements TwoWayKey2StringMapper {
          switch (type) {
             case POSTKEY_IDENTIFIER:
                return PostKey.fromDBKeyString(value);
+            case POSTBUCKETKEY_IDENTIFIER:
+               return PostBucketKey.fromDBKeyString(value);
+            case FOLLOWCHUNKKEY_IDENTIFIER:
+               return FollowChunkKey.fromDBKeyString(value);
             case SHORT_IDENTIFIER:
                return Short.parseShort(value);
             case BYTE_IDENTIFIER:
@@ -119,7 +131,7 @@ public class TwoWayKey2StringChunchunMapper implements TwoWayKey2StringMapper {
 
    @Override
    public boolean isSupportedType(Class<?> keyType) {
-      return keyType == PostKey.class || isPrimitive(keyType);
+      return keyType == PostKey.class || keyType == PostBucketKey.class || keyType == FollowChunkKey.class || isPrimitive(keyType);
    }
 
    private String generateString(char identifier, String s) {
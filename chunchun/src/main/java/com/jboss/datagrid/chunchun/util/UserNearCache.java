@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.annotation.TransactionCompleted;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.infinispan.notifications.cachelistener.event.TransactionCompletedEvent;
+import org.infinispan.transaction.xa.GlobalTransaction;
+
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Node local cache of users in front of the user cache so that rendering posts and user lists
+ * does not do a remote lookup for each user in distribution mode. Users are dropped when this
+ * node is notified about their change - on the node doing the change and on the owners. Other
+ * nodes are not notified so each user is kept for at most <code>lifespan</code> milliseconds.
+ * Keys changed in a transaction are dropped again once it completes so that a lookup done
+ * meanwhile does not keep the old user.
+ * <p>
+ * Returned users are the shared instances, they must not be changed. Writers should read users
+ * from the user cache itself.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+@Listener
+public class UserNearCache {
+
+   private final Cache<String, Object> userCache;
+   private final long lifespan;
+
+   // access ordered, the eldest entry is the least recently used one
+   private final LinkedHashMap<String, CachedUser> entries;
+
+   // keys changed by not yet completed transactions
+   private final Map<GlobalTransaction, Set<String>> changedInTransaction = new ConcurrentHashMap<GlobalTransaction, Set<String>>();
+
+   // increased on each invalidation, lookups started before it must not be cached
+   private final AtomicLong invalidations = new AtomicLong();
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   public UserNearCache(Cache<String, Object> userCache, final int maxEntries, long lifespan) {
+      this.userCache = userCache;
+      this.lifespan = lifespan;
+      this.entries = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > maxEntries;
+         }
+      };
+      userCache.addListener(this);
+   }
+
+   public User get(String username) {
+      long now = System.currentTimeMillis();
+      synchronized (entries) {
+         CachedUser entry = entries.get(username);
+         if (entry != null) {
+            if (entry.expires >= now) {
+               hits.incrementAndGet();
+               return entry.user;
+            }
+            entries.remove(username);
+         }
+      }
+      misses.incrementAndGet();
+      long invalidationsBefore = invalidations.get();
+      User user = (User) userCache.get(username);
+      if (user != null) {
+         synchronized (entries) {
+            // don't keep a user which may have changed while being looked up
+            if (invalidations.get() == invalidationsBefore) {
+               entries.put(username, new CachedUser(user, now + lifespan));
+            }
+         }
+      }
+      return user;
+   }
+
+   public void invalidate(String username) {
+      synchronized (entries) {
+         invalidations.incrementAndGet();
+         entries.remove(username);
+      }
+   }
+
+   public void stop() {
+      userCache.removeListener(this);
+      synchronized (entries) {
+         entries.clear();
+      }
+   }
+
+   public int size() {
+      synchronized (entries) {
+         return entries.size();
+      }
+   }
+
+   public long getHits() {
+      return hits.get();
+   }
+
+   public long getMisses() {
+      return misses.get();
+   }
+
+   /*
+    * Share of lookups served by this cache, 0 if there were none
+    */
+   public double getHitRate() {
+      long h = hits.get();
+      long total = h + misses.get();
+      return total == 0 ? 0 : (double) h / total;
+   }
+
+   @CacheEntryModified
+   @CacheEntryRemoved
+   @CacheEntryInvalidated
+   public void entryChanged(CacheEntryEvent<String, Object> event) {
+      String username = event.getKey();
+      invalidate(username);
+      GlobalTransaction tx = event.getGlobalTransaction();
+      if (tx != null && event.isOriginLocal()) {
+         Set<String> keys = changedInTransaction.get(tx);
+         if (keys == null) {
+            keys = new HashSet<String>();
+            changedInTransaction.put(tx, keys);
+         }
+         synchronized (keys) {
+            keys.add(username);
+         }
+      }
+   }
+
+   @TransactionCompleted
+   public void transactionCompleted(TransactionCompletedEvent<String, Object> event) {
+      Set<String> keys = changedInTransaction.remove(event.getGlobalTransaction());
+      if (keys != null) {
+         synchronized (keys) {
+            for (String username : keys) {
+               invalidate(username);
+            }
+         }
+      }
+   }
+
+   private static class CachedUser {
+
+      private final User user;
+      private final long expires;
+
+      private CachedUser(User user, long expires) {
+         this.user = user;
+         this.expires = expires;
+      }
+   }
+}
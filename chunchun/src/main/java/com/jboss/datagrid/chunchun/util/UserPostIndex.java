@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.model.PostBucket;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Maintains the index of a user's posts. {@link User} keeps only the newest
+ * <code>RECENT_POSTS_SIZE</code> post keys, older ones are moved into per day
+ * {@link PostBucket}s so that neither the user entry nor any bucket grows with the history
+ * and adding a post changes a fixed amount of data. Callers are expected to run inside a
+ * transaction and to store the user afterwards.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class UserPostIndex {
+
+   public static final String CACHE_NAME = "postIndexCache";
+
+   public static final int RECENT_POSTS_SIZE = Integer.getInteger("chunchun.user.recent.posts", 30);
+
+   private UserPostIndex() {
+      super();
+   }
+
+   public static void addPost(User user, PostKey key, BasicCache<PostBucketKey, Object> index) {
+      user.addPost(key);
+      while (user.getPosts().size() > RECENT_POSTS_SIZE) {
+         archive(user, user.getPosts().remove(0), index);
+      }
+   }
+
+   /*
+    * Returns false if the post was not found
+    */
+   public static boolean removePost(User user, PostKey key, BasicCache<PostBucketKey, Object> index) {
+      boolean removed = user.getPosts().remove(key);
+      if (!removed && user.getNewestArchivedDay() != User.NO_ARCHIVED_POSTS) {
+         long day = Math.min(PostBucketKey.dayOf(key.getTimeOfPost()), user.getNewestArchivedDay());
+         PostBucketKey bucketKey = new PostBucketKey(user.getUsername(), day);
+         PostBucket bucket = (PostBucket) index.get(bucketKey);
+         if (bucket != null && bucket.remove(key)) {
+            // an emptied bucket stays in the chain, iteration just skips it
+            index.put(bucketKey, bucket);
+            removed = true;
+         }
+      }
+      if (removed) {
+         user.setPostCount(user.getPostCount() - 1);
+      }
+      return removed;
+   }
+
+   private static void archive(User user, PostKey key, BasicCache<PostBucketKey, Object> index) {
+      // posts leave the recent ones oldest first so days only grow, should a clock go back
+      // the post joins the newest bucket to keep the chain ordered
+      long day = Math.max(PostBucketKey.dayOf(key.getTimeOfPost()), user.getNewestArchivedDay());
+      PostBucketKey bucketKey = new PostBucketKey(user.getUsername(), day);
+      PostBucket bucket;
+      if (day == user.getNewestArchivedDay()) {
+         bucket = (PostBucket) index.get(bucketKey);
+         if (bucket == null) {
+            // lost bucket, the older ones can not be reached anymore
+            bucket = new PostBucket(User.NO_ARCHIVED_POSTS);
+         }
+      } else {
+         bucket = new PostBucket(user.getNewestArchivedDay());
+         user.setNewestArchivedDay(day);
+      }
+      bucket.add(key);
+      index.put(bucketKey, bucket);
+   }
+}
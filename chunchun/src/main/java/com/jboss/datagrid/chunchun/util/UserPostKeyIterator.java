@@ -21,9 +21,14 @@
  */
 package com.jboss.datagrid.chunchun.util;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.infinispan.api.BasicCache;
+import com.jboss.datagrid.chunchun.model.PostBucket;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
 import com.jboss.datagrid.chunchun.model.PostKey;
 import com.jboss.datagrid.chunchun.model.User;
 import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
@@ -31,19 +36,27 @@ import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
 /**
  * @author Aleksandar Kostadinov
  *
- * This iterator would iterate over {@link User}'s recent posts in reverse order.
- * If in the future older and recent posts are stored in separate locations, this
- * this can make it transparent to the iterating user. This is the reason we need
- * a reference to the CacheContainerProvider.
+ * This iterator would iterate over {@link User}'s posts in reverse order. The recent
+ * posts are kept in the user, older ones are archived in day buckets (see {@link UserPostIndex})
+ * which are looked up one at a time only when the iteration gets to them. This is the reason we
+ * need a reference to the CacheContainerProvider.
  * No guarantees are made that {@link Post} will not be deleted in the mean time.
  */
 public class UserPostKeyIterator implements Iterator<PostKey> {
 
-   // private User user;
-   // private CacheContainerProvider provider;
+   private CacheContainerProvider provider;
+   private String owner;
 
-   private List<PostKey> recentPosts;
-   private int recentPostsIndex;
+   // posts of the recent posts snapshot or of the current bucket, oldest first
+   private List<PostKey> posts;
+   private int postsIndex;
+
+   // day of the next older bucket
+   private long nextDay;
+
+   // cursor until the first post older than it is found
+   private PostKey before;
+   private boolean cursorBucketLookedUp;
 
    // private Logger log = Logger.getLogger(this.getClass().getName());
 
@@ -52,22 +65,38 @@ public class UserPostKeyIterator implements Iterator<PostKey> {
    }
 
    public UserPostKeyIterator(User user, CacheContainerProvider provider) {
-      // this.provider = provider;
-      // this.utx = utx;
-      // this.user = user;
-      this.recentPosts = user.getPosts();
-      this.recentPostsIndex = user.getPosts().size() - 1;
+      this(user, provider, null);
+   }
+
+   /*
+    * Starts right below the <code>before</code> cursor so that only posts strictly older than it
+    * are returned, the position is found by binary search over the ascending posts lists.
+    * A null cursor starts with the newest post.
+    */
+   public UserPostKeyIterator(User user, CacheContainerProvider provider, PostKey before) {
+      this.provider = provider;
+      this.owner = user.getUsername();
+      // the recent posts are shifted when a post is archived, iterate over a copy
+      this.posts = Arrays.asList(user.getPosts().toArray(new PostKey[0]));
+      this.nextDay = user.getNewestArchivedDay();
+      this.before = before;
+      position();
    }
 
    @Override
    public boolean hasNext() {
-      if (recentPostsIndex >= 0) return true;
-      return false;
+      while (postsIndex < 0 && nextDay != User.NO_ARCHIVED_POSTS) {
+         nextBucket();
+      }
+      return postsIndex >= 0;
    }
 
    @Override
    public PostKey next() {
-      return recentPosts.get(recentPostsIndex--);
+      if (!hasNext()) {
+         throw new NoSuchElementException();
+      }
+      return posts.get(postsIndex--);
    }
 
    @Override
@@ -75,7 +104,49 @@ public class UserPostKeyIterator implements Iterator<PostKey> {
       throw new UnsupportedOperationException("removing user posts not supported through iterator");      
    }
 
+   private void nextBucket() {
+      PostBucket bucket = null;
+      if (before != null && !cursorBucketLookedUp) {
+         // jump right to the bucket of the cursor if there is one instead of walking the newer ones
+         cursorBucketLookedUp = true;
+         long cursorDay = PostBucketKey.dayOf(before.getTimeOfPost());
+         if (cursorDay < nextDay) {
+            bucket = (PostBucket) getPostIndexCache(provider).get(new PostBucketKey(owner, cursorDay));
+         }
+      }
+      if (bucket == null) {
+         bucket = (PostBucket) getPostIndexCache(provider).get(new PostBucketKey(owner, nextDay));
+      }
+      if (bucket == null) {
+         // broken chain, nothing more can be found
+         posts = Collections.emptyList();
+         nextDay = User.NO_ARCHIVED_POSTS;
+      } else {
+         posts = bucket.getPosts();
+         nextDay = bucket.getPreviousDay();
+      }
+      position();
+   }
+
+   private void position() {
+      if (before == null) {
+         postsIndex = posts.size() - 1;
+         return;
+      }
+      int index = Collections.binarySearch(posts, before, PostKeyTimeComparator.getInstance());
+      // not found returns (-(insertion point) - 1), either way start with the preceding one
+      postsIndex = index >= 0 ? index - 1 : -index - 2;
+      if (postsIndex >= 0) {
+         // everything from here on is older
+         before = null;
+      }
+   }
+
    private static BasicCache<String, Object> getUserCache(CacheContainerProvider provider) {
       return provider.getCacheContainer().getCache("userCache");
    }
-}
\ No newline at end of file
+
+   private static BasicCache<PostBucketKey, Object> getPostIndexCache(CacheContainerProvider provider) {
+      return provider.getCacheContainer().getCache(UserPostIndex.CACHE_NAME);
+   }
+}
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.infinispan.api.BasicCache;
+
+import com.jboss.datagrid.chunchun.model.FollowCounts;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Watch statistics of the generated users <code>user1..userN</code>. Users are split into
+ * partitions checked in parallel. Each partition reads the follow counts of a user once and
+ * uses their chunk masks for both the watched users and the watchers, mutual watches are the
+ * intersection of the watched users with a set of the watchers. In detailed mode the users of
+ * a partition are read at once too. Partition results are handed to a listener on the calling
+ * thread as they finish and summed up.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class UserStats {
+
+   private static final int PARTITION_SIZE = Integer.getInteger("chunchun.userstats.partition", 100);
+   private static final int PARALLELISM = Integer.getInteger("chunchun.userstats.parallelism", 8);
+
+   public interface PartitionListener {
+      void partitionDone(UserStats partition);
+   }
+
+   private int lessWatches;
+   private int moreWatches;
+   private int lessMutualWatches;
+   private int moreMutualWatches;
+   private int watchSelf;
+
+   // per user details, only if asked for
+   private final List<String> usernames = new ArrayList<String>();
+   private final List<Integer> postCounts = new ArrayList<Integer>();
+   private final List<Integer> mutualWatches = new ArrayList<Integer>();
+
+   /*
+    * Checks users 1..userCount against the anticipated number of watches and percent of mutual ones
+    */
+   public static UserStats collect(final CacheContainerProvider provider, int userCount, final int watchesCount,
+         final int mutualWatchesPercent, final boolean detailed, PartitionListener listener) {
+      ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+      try {
+         CompletionService<UserStats> completion = new ExecutorCompletionService<UserStats>(executor);
+         int partitions = 0;
+         for (int first = 1; first <= userCount; first += PARTITION_SIZE) {
+            final int from = first;
+            final int to = Math.min(userCount, first + PARTITION_SIZE - 1);
+            completion.submit(new Callable<UserStats>() {
+               public UserStats call() {
+                  return collectPartition(provider, from, to, watchesCount, mutualWatchesPercent, detailed);
+               }
+            });
+            partitions++;
+         }
+         UserStats total = new UserStats();
+         for (int i = 0; i < partitions; i++) {
+            UserStats partition = completion.take().get();
+            if (listener != null) listener.partitionDone(partition);
+            total.add(partition);
+         }
+         return total;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while collecting user stats", e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException("Unable to collect user stats", e.getCause());
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   static UserStats collectPartition(CacheContainerProvider provider, int from, int to, int watchesCount,
+         int mutualWatchesPercent, boolean detailed) {
+      FollowGraph followGraph = new FollowGraph(provider);
+      List<String> partitionUsers = new ArrayList<String>(to - from + 1);
+      for (int index = from; index <= to; index++) {
+         partitionUsers.add("user" + index);
+      }
+      BasicCache<String, Object> userCache = provider.getCacheContainer().getCache("userCache");
+      Map<String, Object> users = detailed ? provider.getAll(userCache, partitionUsers) : null;
+      long mutualWatchesAnticipated = (long) mutualWatchesPercent * watchesCount;
+      UserStats stats = new UserStats();
+      for (String username : partitionUsers) {
+         FollowCounts counts = followGraph.getCounts(username);
+         List<String> watching = followGraph.getFollowing(username, counts);
+         if (watching.size() > watchesCount) {
+            stats.moreWatches++;
+         } else if (watching.size() < watchesCount) {
+            stats.lessWatches++;
+         }
+         Set<String> watchers = new HashSet<String>(followGraph.getFollowers(username, counts));
+         if (watchers.contains(username)) stats.watchSelf++;
+
+         int mutual = 0;
+         for (String user : watching) {
+            if (watchers.contains(user)) mutual++;
+         }
+         if (mutual * 100l < mutualWatchesAnticipated) {
+            stats.lessMutualWatches++;
+         } else if (mutual * 100l - 1l >= mutualWatchesAnticipated) {
+            stats.moreMutualWatches++;
+         }
+         if (detailed) {
+            User user = (User) users.get(username);
+            stats.usernames.add(username);
+            stats.postCounts.add(user == null ? 0 : user.getPostCount());
+            stats.mutualWatches.add(mutual);
+         }
+      }
+      return stats;
+   }
+
+   private void add(UserStats partition) {
+      lessWatches += partition.lessWatches;
+      moreWatches += partition.moreWatches;
+      lessMutualWatches += partition.lessMutualWatches;
+      moreMutualWatches += partition.moreMutualWatches;
+      watchSelf += partition.watchSelf;
+   }
+
+   public int getLessWatches() {
+      return lessWatches;
+   }
+
+   public int getMoreWatches() {
+      return moreWatches;
+   }
+
+   public int getLessMutualWatches() {
+      return lessMutualWatches;
+   }
+
+   public int getMoreMutualWatches() {
+      return moreMutualWatches;
+   }
+
+   public int getWatchSelf() {
+      return watchSelf;
+   }
+
+   public List<String> getUsernames() {
+      return usernames;
+   }
+
+   public List<Integer> getPostCounts() {
+      return postCounts;
+   }
+
+   public List<Integer> getMutualWatches() {
+      return mutualWatches;
+   }
+}
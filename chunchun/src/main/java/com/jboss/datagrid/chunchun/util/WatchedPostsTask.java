@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.jboss.datagrid.chunchun.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.infinispan.Cache;
+import org.infinispan.api.BasicCache;
+import org.infinispan.distexec.DefaultExecutorService;
+import org.infinispan.distexec.DistributedCallable;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Merges posts of watched users on the nodes owning them instead of pulling all the users to the
+ * web node. Each node gets the watched users it owns, merges their posts locally and sends back
+ * only the newest <code>limit</code> post keys which the caller merges again. Enabled by the
+ * <code>chunchun.timeline.distributed</code> property and only when the user cache is clustered.
+ *
+ * @author Aleksandar Kostadinov
+ *
+ */
+public class WatchedPostsTask implements DistributedCallable<String, Object, List<PostKey>>, Serializable {
+
+   private static final long serialVersionUID = 6374014592117722516L;
+
+   public static final boolean ENABLED = Boolean.getBoolean("chunchun.timeline.distributed");
+
+   private final int limit;
+   private final long since;
+   private final PostKey before;
+
+   private transient Cache<String, Object> userCache;
+   private transient Set<String> usernames;
+
+   private WatchedPostsTask(int limit, long since, PostKey before) {
+      this.limit = limit;
+      this.since = since;
+      this.before = before;
+   }
+
+   /*
+    * True if the task can run on the grid owning the given user cache
+    */
+   public static boolean isUsable(BasicCache<String, Object> userCache) {
+      return ENABLED && userCache instanceof Cache
+            && ((Cache<String, Object>) userCache).getAdvancedCache().getRpcManager() != null;
+   }
+
+   /*
+    * Newest <code>limit</code> posts of the users not older than <code>since</code>
+    */
+   public static List<PostKey> loadPosts(BasicCache<String, Object> userCache, Collection<String> usernames, int limit, long since) {
+      return PostKeyMerger.merge(execute(userCache, usernames, new WatchedPostsTask(limit, since, null)), limit, since);
+   }
+
+   /*
+    * Newest <code>limit</code> posts of the users older than the <code>before</code> cursor
+    */
+   public static List<PostKey> loadPostsBefore(BasicCache<String, Object> userCache, Collection<String> usernames, PostKey before, int limit) {
+      return PostKeyMerger.merge(execute(userCache, usernames, new WatchedPostsTask(limit, Long.MIN_VALUE, before)), limit);
+   }
+
+   private static List<Iterator<PostKey>> execute(BasicCache<String, Object> userCache, Collection<String> usernames, WatchedPostsTask task) {
+      List<Iterator<PostKey>> partialResults = new ArrayList<Iterator<PostKey>>();
+      if (usernames.isEmpty()) {
+         return partialResults;
+      }
+      DefaultExecutorService executor = new DefaultExecutorService((Cache<String, Object>) userCache);
+      try {
+         for (Future<List<PostKey>> future : executor.submitEverywhere(task, usernames.toArray(new String[usernames.size()]))) {
+            partialResults.add(future.get().iterator());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while loading posts of " + usernames.size() + " users", e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException("Failed to load posts of " + usernames.size() + " users", e.getCause());
+      } finally {
+         executor.shutdown();
+      }
+      return partialResults;
+   }
+
+   @Override
+   public void setEnvironment(Cache<String, Object> cache, Set<String> inputKeys) {
+      this.userCache = cache;
+      this.usernames = inputKeys;
+   }
+
+   @Override
+   public List<PostKey> call() throws Exception {
+      // keys of this node, no point in parallel lookups
+      CacheContainerProvider provider = new LocalCacheContainerProvider(userCache.getCacheManager());
+      List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>(usernames.size());
+      for (Object user : provider.getAll(userCache, usernames).values()) {
+         iterators.add(new UserPostKeyIterator((User) user, provider, before));
+      }
+      return PostKeyMerger.merge(iterators, limit, since);
+   }
+}
@@ -0,0 +1,31 @@
+package com.jboss.datagrid.chunchun.servlet;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+public class CommandMetricsTest {
+
+  @Test
+  public void throughJmx() throws Exception {
+     CommandMetrics metrics = new CommandMetrics();
+     metrics.record("recentposts", 2000000, false);
+     metrics.record("recentposts", 3000000, true);
+     metrics.record(null, 1000, false);
+     metrics.register();
+     try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CommandMetrics.OBJECT_NAME);
+        String[] report = (String[]) server.getAttribute(name, "Report");
+        assert report.length == 2 && report[1].startsWith("recentposts: count 2, errors 1") : report[1];
+        assert (Long) server.invoke(name, "percentile", new Object[] {"recentposts", 50.0}, new String[] {"java.lang.String", "double"}) < 2100;
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assert metrics.count("recentposts") == 0;
+     } finally {
+        metrics.unregister();
+     }
+  }
+}
@@ -0,0 +1,50 @@
+package com.jboss.datagrid.chunchun.servlet;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.session.DisplayPost;
+
+public class CommandWriterTest {
+
+  private static final DisplayPost FIRST = new DisplayPost("Name1", PostKey.withId("user1", 1L << 22), "Hello \"world\"", "-/user1.jpg");
+  private static final DisplayPost SECOND = new DisplayPost("Name2", PostKey.withId("user2", 1L), "Bye", "-/user2.jpg");
+
+  @Test
+  public void textKeepsFormat() {
+     StringWriter text = new StringWriter();
+     recentPosts(CommandWriter.create(null, new PrintWriter(text)));
+     assert text.toString().equals("\nDisplayed: 10\nNewest: 42\nNext: 1:user2\n\nHello \"world\"\nBye") : text;
+  }
+
+  @Test
+  public void json() {
+     StringWriter json = new StringWriter();
+     CommandWriter writer = CommandWriter.create("json", new PrintWriter(json));
+     recentPosts(writer);
+     assert json.toString().equals("{\"displayed\":10,\"newest\":42,\"next\":\"1:user2\",\"posts\":["
+           + "{\"id\":4194304,\"owner\":\"user1\",\"name\":\"Name1\",\"time\":" + FIRST.getTimeOfPost() + ",\"message\":\"Hello \\\"world\\\"\"},"
+           + "{\"id\":1,\"owner\":\"user2\",\"name\":\"Name2\",\"time\":" + SECOND.getTimeOfPost() + ",\"message\":\"Bye\"}]}") : json;
+
+     json = new StringWriter();
+     writer = CommandWriter.create("json", new PrintWriter(json));
+     writer.message("User Logged in");
+     writer.message("New post sent", "a\nb");
+     writer.field("total", "Total", 3);
+     writer.finish();
+     assert json.toString().equals("{\"messages\":[\"User Logged in\",\"New post sent: a\\nb\"],\"total\":3}") : json;
+  }
+
+  private static void recentPosts(CommandWriter writer) {
+     writer.field("displayed", "Displayed", 10);
+     writer.field("newest", "Newest", 42L);
+     writer.field("next", "Next", SECOND.getPostId() + ":" + SECOND.getOwnerUsername());
+     writer.separator();
+     writer.post(FIRST);
+     writer.post(SECOND);
+     writer.finish();
+  }
+}
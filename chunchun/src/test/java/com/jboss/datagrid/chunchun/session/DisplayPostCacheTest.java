@@ -0,0 +1,32 @@
+package com.jboss.datagrid.chunchun.session;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+public class DisplayPostCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsedAndExpired() throws Exception {
+     DisplayPostCache cache = new DisplayPostCache(2, 200);
+     PostKey first = new PostKey("user1", 10);
+     PostKey second = new PostKey("user2", 20);
+     PostKey third = new PostKey("user3", 30);
+     cache.put(first, new DisplayPost("Name1", first, "1", "-/user1.jpg"));
+     cache.put(second, new DisplayPost("Name2", second, "2", "-/user1.jpg"));
+     assert cache.get(first) != null;
+     // second is the least recently used one now
+     cache.put(third, new DisplayPost("Name3", third, "3", "-/user1.jpg"));
+     assert cache.size() == 2;
+     assert cache.get(second) == null;
+     assert cache.getAll(Arrays.asList(first, second, third)).keySet().containsAll(Arrays.asList(first, third));
+
+     cache.remove(first);
+     assert cache.get(first) == null;
+     Thread.sleep(300);
+     assert cache.get(third) == null;
+     assert cache.size() == 0;
+  }
+}
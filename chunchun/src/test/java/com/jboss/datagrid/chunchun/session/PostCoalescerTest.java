@@ -0,0 +1,195 @@
+package com.jboss.datagrid.chunchun.session;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.infinispan.api.BasicCache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.transaction.TransactionMode;
+import org.infinispan.transaction.lookup.DummyTransactionManagerLookup;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.Timeline;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
+import com.jboss.datagrid.chunchun.util.LocalCacheContainerProvider;
+import com.jboss.datagrid.chunchun.util.PostLog;
+
+public class PostCoalescerTest {
+
+  private static final int USERS = 4;
+  private static final int SENDERS = 16;
+  private static final int SENDS = 50;
+
+  private DefaultCacheManager cacheManager;
+  private CacheContainerProvider provider;
+  private PostCoalescer coalescer;
+
+  @BeforeClass
+  public void startCacheManager() {
+     // transactional as deployed
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build(),
+           new ConfigurationBuilder().transaction().transactionMode(TransactionMode.TRANSACTIONAL)
+                 .transactionManagerLookup(new DummyTransactionManagerLookup()).build());
+     provider = new LocalCacheContainerProvider(cacheManager);
+     coalescer = new PostCoalescer(provider, true, 5, 200);
+     for (int i = 0; i < USERS; i++) {
+        cacheManager.getCache("userCache").put("user" + i, new User("user" + i, "Name", "Surname", "pass", "", "user1.jpg"));
+     }
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     coalescer.stop();
+     cacheManager.stop();
+  }
+
+  @Test
+  public void replayFromLog() throws Exception {
+     cacheManager.getCache("userCache").put("writer", new User("writer", "Name", "Surname", "pass", "", "user1.jpg"));
+     File file = File.createTempFile("chunchun-posts", ".log");
+     file.deleteOnExit();
+     // logged before a crash, the first one was stored already, the last one stored and deleted
+     PostLog postLog = new PostLog(file, 64 * 1024);
+     Post stored = new Post("writer", "stored");
+     Post lost = new Post("writer", "lost");
+     Post deleted = new Post("writer", "deleted");
+     postLog.append(Arrays.asList(stored, lost, deleted));
+     postLog.appendDeletion(deleted.getKey());
+     postLog.sync(postLog.getAppendedRecords());
+     postLog.close();
+     cacheManager.getCache("postCache").put(stored.getKey(), stored);
+     int postCount = ((User) cacheManager.getCache("userCache").get("writer")).getPostCount();
+
+     PostCoalescer logged = new PostCoalescer(provider, false, 5, 200, file, 64 * 1024);
+     try {
+        assert logged.isEnabled();
+        PostLog replayed = logged.openLog();
+        for (int i = 0; i < 100 && replayed.size() > 0; i++) {
+           Thread.sleep(50);
+        }
+        assert replayed.size() == 0;
+        assert cacheManager.getCache("postCache").get(lost.getKey()) != null;
+        assert cacheManager.getCache("postCache").get(deleted.getKey()) == null;
+        assert ((User) cacheManager.getCache("userCache").get("writer")).getPostCount() == postCount + 1;
+
+        // acknowledged once logged, stored later
+        logged.send("writer", Arrays.asList("logged"));
+        for (int i = 0; i < 100 && replayed.size() > 0; i++) {
+           Thread.sleep(50);
+        }
+        assert replayed.size() == 0;
+
+        // failing for good, given up after the retries instead of holding up the log
+        cacheManager.getCache("userCache").put("failing", new User("failing", "Name", "Surname", "pass", "", "user1.jpg"));
+        new FollowGraph(provider).follow("failing reader", "failing");
+        cacheManager.getCache("timelineCache").put("failing reader", "not a timeline");
+        logged.send("failing", Arrays.asList("never stored"));
+        logged.send("writer", Arrays.asList("stored after it"));
+        for (int i = 0; i < 100 && replayed.size() > 0; i++) {
+           Thread.sleep(50);
+        }
+        assert replayed.size() == 0;
+        assert ((User) cacheManager.getCache("userCache").get("failing")).getPostCount() == 0;
+        assert ((User) cacheManager.getCache("userCache").get("writer")).getPostCount() == postCount + 3;
+     } finally {
+        logged.stop();
+     }
+  }
+
+  @Test
+  public void retryFailedBatchPerOwner() throws Exception {
+     BasicCache<String, Object> userCache = cacheManager.getCache("userCache");
+     BasicCache<String, Object> timelineCache = cacheManager.getCache("timelineCache");
+     userCache.put("good", new User("good", "Name", "Surname", "pass", "", "user1.jpg"));
+     userCache.put("bad", new User("bad", "Name", "Surname", "pass", "", "user1.jpg"));
+     FollowGraph followGraph = new FollowGraph(provider);
+     followGraph.follow("reader", "good");
+     followGraph.follow("broken", "bad");
+     timelineCache.put("reader", new Timeline(100));
+     // fan-out of posts of bad fails, after the posts of good were written in the same transaction
+     timelineCache.put("broken", "not a timeline");
+
+     final PostCoalescer slow = new PostCoalescer(provider, true, 500, 200);
+     ExecutorService executor = Executors.newSingleThreadExecutor();
+     try {
+        Future<Object> good = executor.submit(new Callable<Object>() {
+           public Object call() {
+              slow.send("good", Arrays.asList("one", "two"));
+              return null;
+           }
+        });
+        Thread.sleep(100);
+        try {
+           slow.send("bad", Arrays.asList("lost"));
+           assert false : "broken fan-out accepted";
+        } catch (RuntimeException e) {
+           // expected
+        }
+        good.get();
+
+        // only the retry of good committed and it applied each post once
+        assert slow.getBatches() == 1 && slow.getSends() == 1;
+        User user = (User) userCache.get("good");
+        assert user.getPostCount() == 2 : user.getPostCount();
+        assert user.getPosts().size() == 2;
+        assert ((Timeline) timelineCache.get("reader")).size() == 2;
+        assert ((User) userCache.get("bad")).getPostCount() == 0;
+        assert ((User) userCache.get("bad")).getPosts().isEmpty();
+     } finally {
+        slow.stop();
+        executor.shutdown();
+     }
+  }
+
+  @Test
+  public void concurrentSends() throws Exception {
+     int postsBefore = cacheManager.getCache("postCache").size();
+     ExecutorService executor = Executors.newFixedThreadPool(SENDERS);
+     List<Future<Object>> senders = new ArrayList<Future<Object>>();
+     for (int s = 0; s < SENDERS; s++) {
+        final String username = "user" + s % USERS;
+        senders.add(executor.submit(new Callable<Object>() {
+           public Object call() {
+              for (int i = 0; i < SENDS; i++) {
+                 coalescer.send(username, Collections.singletonList("message " + i));
+              }
+              return null;
+           }
+        }));
+     }
+     // fails alone, the others in the same batch are retried per owner
+     try {
+        coalescer.send("nobody", Collections.singletonList("lost"));
+        assert false : "unknown user accepted";
+     } catch (RuntimeException e) {
+        // expected
+     }
+     for (Future<Object> sender : senders) {
+        sender.get();
+     }
+     executor.shutdown();
+
+     Reporter.log(coalescer.getSends() + " sends in " + coalescer.getBatches() + " transactions", true);
+     for (int i = 0; i < USERS; i++) {
+        User user = (User) cacheManager.getCache("userCache").get("user" + i);
+        assert user.getPostCount() == SENDERS / USERS * SENDS : user.getPostCount();
+     }
+     assert cacheManager.getCache("postCache").size() == postsBefore + SENDERS * SENDS;
+     assert coalescer.getSends() == SENDERS * SENDS;
+     assert coalescer.getBatches() < coalescer.getSends();
+  }
+}
@@ -0,0 +1,54 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.infinispan.api.BasicCache;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+public class AvatarsTest {
+
+  @Test
+  public void storeResizedVariants() throws Exception {
+     byte[] noPhoto = load("images/nophoto.jpg");
+     byte[] user1 = load("images/user1.jpg");
+     DefaultCacheManager cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+     try {
+        BasicCache<String, Object> avatars = cacheManager.getCache("avatarCache");
+        String hash = Avatars.store(avatars, "nophoto.jpg", noPhoto);
+        assert hash.equals(Avatars.hash(noPhoto));
+        for (int size : new int[] {Avatars.LARGE, Avatars.SMALL, Avatars.SMALLER}) {
+           byte[] variant = (byte[]) avatars.get(Avatars.variantKey(hash, size));
+           BufferedImage image = ImageIO.read(new ByteArrayInputStream(variant));
+           assert image.getWidth() == size && image.getHeight() == size;
+           assert variant.length < noPhoto.length;
+           Reporter.log("nophoto.jpg " + noPhoto.length + " B, " + size + "px variant " + variant.length + " B", true);
+        }
+        assert Arrays.equals((byte[]) avatars.get("nophoto.jpg"), (byte[]) avatars.get(Avatars.variantKey(hash, Avatars.LARGE)));
+
+        // not scaled up
+        String userHash = Avatars.store(avatars, "user1.jpg", user1);
+        assert Arrays.equals((byte[]) avatars.get(Avatars.variantKey(userHash, Avatars.LARGE)), user1);
+     } finally {
+        cacheManager.stop();
+     }
+  }
+
+  private static byte[] load(String resource) throws Exception {
+     InputStream in = AvatarsTest.class.getClassLoader().getResourceAsStream(resource);
+     ByteArrayOutputStream out = new ByteArrayOutputStream();
+     byte[] buffer = new byte[1024];
+     int length;
+     while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+     in.close();
+     return out.toByteArray();
+  }
+}
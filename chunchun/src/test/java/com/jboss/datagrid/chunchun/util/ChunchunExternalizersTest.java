@@ -0,0 +1,114 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.marshall.StreamingMarshaller;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.FollowChunk;
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Compares the externalizers with plain java serialization through the cache marshaller,
+ * sizes and times are written to the TestNG report.
+ */
+public class ChunchunExternalizersTest {
+
+  private static final int ITERATIONS = Integer.getInteger("chunchun.test.marshall.iterations", 2000);
+
+  private DefaultCacheManager externalized;
+  private DefaultCacheManager serialized;
+
+  @BeforeClass
+  public void startCacheManagers() {
+     GlobalConfigurationBuilder builder = new GlobalConfigurationBuilder();
+     builder.globalJmxStatistics().allowDuplicateDomains(true);
+     ChunchunExternalizers.register(builder.serialization());
+     externalized = new DefaultCacheManager(builder.build());
+     serialized = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+  }
+
+  @AfterClass
+  public void stopCacheManagers() {
+     externalized.stop();
+     serialized.stop();
+  }
+
+  @Test
+  public void compareWithSerialization() throws Exception {
+     long now = System.currentTimeMillis();
+     User user = new User("user123", "Name123", "Surname123", "0123456789abcdef0123456789abcdef", "Description of person 123", "user1.jpg");
+     for (int i = 0; i < UserPostIndex.RECENT_POSTS_SIZE; i++) {
+        user.addPost(new PostKey("user123", now - (UserPostIndex.RECENT_POSTS_SIZE - i) * 3600000L));
+     }
+     user.setNewestArchivedDay(15000);
+     user.setAvatarHash(Avatars.hash(new byte[] {1, 2, 3}));
+     Post post = new Post("user123", "Post number 7 for user Name123 at Mon Jan 07 10:00:00 CET 2013", now);
+     post.setOwnerName("Name123");
+     List<PostKey> timelineKeys = new ArrayList<PostKey>();
+     for (int i = 0; i < 100; i++) {
+        timelineKeys.add(new PostKey("user" + (i % 20), now - i * 60000L));
+     }
+     FollowChunk chunk = FollowChunk.EMPTY;
+     for (int i = 0; i < 1000; i++) {
+        chunk = chunk.with("user" + i);
+     }
+
+     User userCopy = (User) roundTrip(user);
+     assert userCopy.getUsername().equals(user.getUsername()) && userCopy.getPassword().equals(user.getPassword());
+     assert userCopy.getPosts().equals(user.getPosts());
+     assert userCopy.getNewestArchivedDay() == 15000 && userCopy.getPostCount() == user.getPostCount();
+     assert userCopy.getAvatarReference().equals(user.getAvatarReference());
+     assert ((Post) roundTrip(post)).getKey().equals(post.getKey());
+     assert ((Post) roundTrip(post)).getOwnerName().equals("Name123");
+     assert roundTrip(post.getKey()).equals(post.getKey());
+     Timeline timeline = new Timeline(100, timelineKeys, true);
+     Timeline timelineCopy = (Timeline) roundTrip(timeline);
+     assert timelineCopy.getPosts().equals(timelineKeys) && timelineCopy.getBuiltAt() == timeline.getBuiltAt();
+     assert ((FollowChunk) roundTrip(chunk)).getUsernames().containsAll(chunk.getUsernames());
+
+     compare("PostKey", post.getKey());
+     compare("Post", post);
+     compare("User", user);
+     compare("Timeline", new Timeline(100, timelineKeys, true));
+     compare("FollowChunk", chunk);
+  }
+
+  private Object roundTrip(Object o) throws Exception {
+     StreamingMarshaller marshaller = externalized.getCache().getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+     return marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(o));
+  }
+
+  private void compare(String name, Object o) throws Exception {
+     StreamingMarshaller ext = externalized.getCache().getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+     StreamingMarshaller ser = serialized.getCache().getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+     int extSize = ext.objectToByteBuffer(o).length;
+     int serSize = ser.objectToByteBuffer(o).length;
+     long extNanos = time(ext, o);
+     long serNanos = time(ser, o);
+     Reporter.log(name + ": externalizer " + extSize + " B " + extNanos / ITERATIONS + " ns, serializable " + serSize + " B "
+           + serNanos / ITERATIONS + " ns (write + read)", true);
+     assert extSize < serSize : name + " " + extSize + " >= " + serSize;
+  }
+
+  private static long time(StreamingMarshaller marshaller, Object o) throws Exception {
+     // warm up
+     for (int i = 0; i < ITERATIONS; i++) {
+        marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(o));
+     }
+     long start = System.nanoTime();
+     for (int i = 0; i < ITERATIONS; i++) {
+        marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(o));
+     }
+     return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,80 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.FollowCounts;
+
+public class FollowGraphTest {
+
+  private DefaultCacheManager cacheManager;
+  private FollowGraph followGraph;
+
+  @BeforeClass
+  public void startCacheManager() {
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+     followGraph = new FollowGraph(new LocalCacheContainerProvider(cacheManager));
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     cacheManager.stop();
+  }
+
+  @Test
+  public void followAndUnfollow() {
+     int watchers = 1000;
+     for (int i = 0; i < watchers; i++) {
+        assert followGraph.follow("fan" + i, "celebrity");
+     }
+     assert !followGraph.follow("fan1", "celebrity");
+     assert !followGraph.follow("celebrity", "celebrity");
+     assert followGraph.follow("celebrity", "fan1");
+
+     FollowCounts counts = followGraph.getCounts("celebrity");
+     assert counts.getFollowers() == watchers;
+     assert counts.getFollowing() == 1;
+     assert Long.bitCount(counts.getFollowerChunks()) == FollowGraph.CHUNKS;
+     List<String> followers = followGraph.getFollowers("celebrity");
+     assert followers.size() == watchers;
+     assert new HashSet<String>(followers).size() == watchers;
+     assert followGraph.isFollowing("fan7", "celebrity");
+     assert !followGraph.isFollowing("celebrity", "fan7");
+     assert followGraph.getFollowing("fan7").size() == 1;
+
+     assert followGraph.unfollow("fan7", "celebrity");
+     assert !followGraph.unfollow("fan7", "celebrity");
+     assert !followGraph.isFollowing("fan7", "celebrity");
+     assert followGraph.getCounts("celebrity").getFollowers() == watchers - 1;
+     assert followGraph.getCounts("fan7").getFollowingChunks() == 0;
+     assert followGraph.getFollowing("fan7").isEmpty();
+
+     // emptying a chunk clears its bit, the other chunks keep theirs
+     int chunk = FollowGraph.chunkOf("fan1");
+     int left = watchers - 1;
+     for (int i = 0; i < watchers; i++) {
+        if (i != 7 && FollowGraph.chunkOf("fan" + i) == chunk) {
+           assert followGraph.unfollow("fan" + i, "celebrity");
+           left--;
+        }
+     }
+     counts = followGraph.getCounts("celebrity");
+     assert counts.getFollowers() == left;
+     assert counts.getFollowerChunks() == (FollowGraph.CHUNKS == 64 ? -1L : (1L << FollowGraph.CHUNKS) - 1) - (1L << chunk);
+     assert followGraph.getFollowers("celebrity").size() == left;
+     assert followGraph.getFollowers("celebrity", counts).size() == left;
+     assert followGraph.getCounts("fan1").getFollowing() == 0 && followGraph.getCounts("fan1").getFollowingChunks() == 0;
+
+     // a bit lost from the masks comes back with the next follow into its chunk
+     cacheManager.getCache(FollowGraph.MASK_CACHE_NAME).remove("celebrity");
+     assert followGraph.getFollowers("celebrity").isEmpty();
+     assert followGraph.follow("latecomer", "celebrity");
+     assert followGraph.getCounts("celebrity").getFollowerChunks() == 1L << FollowGraph.chunkOf("latecomer");
+  }
+}
@@ -0,0 +1,118 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.TransactionManager;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.remoting.transport.Address;
+import org.infinispan.transaction.LockingMode;
+import org.infinispan.transaction.TransactionMode;
+import org.infinispan.transaction.lookup.DummyTransactionManagerLookup;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Posting a message in a 3 node distributed cluster (numOwners=2) with and without key grouping.
+ * Commit latencies and the number of remote nodes involved are written to the TestNG report.
+ */
+public class KeyGroupingTest {
+
+  private static final int NODES = 3;
+  private static final int USERS = 50;
+  private static final int POSTS = Integer.getInteger("chunchun.test.grouping.posts", 500);
+
+  private TestCluster cluster;
+
+  @BeforeClass
+  public void startCluster() throws Exception {
+     cluster = new TestCluster("chunchun-grouping-test", NODES, new ConfigurationBuilder().build());
+     for (DefaultCacheManager manager : cluster.getManagers()) {
+        manager.defineConfiguration("plain", configuration(false));
+        manager.defineConfiguration("grouped", configuration(true));
+     }
+     cluster.startCaches("plain", "grouped");
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void stopCluster() throws InterruptedException {
+     cluster.stop();
+  }
+
+  @Test
+  public void groupedPostsStayWithTheirUser() throws Exception {
+     // warm up both before measuring
+     sendPosts("plain", POSTS / 5);
+     sendPosts("grouped", POSTS / 5);
+     double[] plain = sendPosts("plain", POSTS);
+     double[] grouped = sendPosts("grouped", POSTS);
+     Reporter.log("without grouping: " + plain[0] + " us per commit, " + plain[1] + " remote nodes per commit", true);
+     Reporter.log("with grouping:    " + grouped[0] + " us per commit, " + grouped[1] + " remote nodes per commit", true);
+
+     AdvancedCache<Object, Object> cache = cluster.get(0).getCache("grouped").getAdvancedCache();
+     for (int i = 0; i < USERS; i++) {
+        String username = "user" + i;
+        List<Address> owners = cache.getDistributionManager().locate(username);
+        assert owners.equals(cache.getDistributionManager().locate(new PostKey(username, i))) : username;
+     }
+     assert grouped[1] <= plain[1];
+  }
+
+  /*
+   * Stores a post and its updated user in one transaction on the first node, returns average
+   * commit time in microseconds and average number of other nodes owning the written keys.
+   */
+  private double[] sendPosts(String cacheName, int count) throws Exception {
+     Cache<Object, Object> cache = cluster.get(0).getCache(cacheName);
+     TransactionManager tm = cache.getAdvancedCache().getTransactionManager();
+     Address self = cluster.get(0).getAddress();
+     long nanos = 0;
+     long remoteNodes = 0;
+     for (int i = 0; i < count; i++) {
+        String username = "user" + (i % USERS);
+        Post post = new Post(username, "message " + i);
+        User user = new User(username, "Name", "Surname", "pass", "", "user.jpg");
+        user.addPost(post.getKey());
+        tm.begin();
+        try {
+           cache.put(post.getKey(), post);
+           cache.put(username, user);
+        } catch (Exception e) {
+           tm.rollback();
+           throw e;
+        }
+        // a failed commit already ended the transaction, nothing to roll back
+        long start = System.nanoTime();
+        tm.commit();
+        nanos += System.nanoTime() - start;
+        Set<Address> involved = new HashSet<Address>(cache.getAdvancedCache().getDistributionManager().locate(username));
+        involved.addAll(cache.getAdvancedCache().getDistributionManager().locate(post.getKey()));
+        involved.remove(self);
+        remoteNodes += involved.size();
+     }
+     return new double[] { nanos / 1000.0 / count, (double) remoteNodes / count };
+  }
+
+  private static Configuration configuration(boolean grouping) {
+     ConfigurationBuilder builder = new ConfigurationBuilder();
+     builder.clustering().cacheMode(CacheMode.DIST_SYNC).hash().numOwners(2).numSegments(10)
+           .groups().enabled(grouping)
+           .stateTransfer().fetchInMemoryState(false).timeout(5000)
+           .transaction().transactionMode(TransactionMode.TRANSACTIONAL).lockingMode(LockingMode.OPTIMISTIC)
+           .transactionManagerLookup(new DummyTransactionManagerLookup());
+     return builder.build();
+  }
+}
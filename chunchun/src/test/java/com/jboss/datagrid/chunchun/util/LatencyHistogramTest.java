@@ -0,0 +1,39 @@
+package com.jboss.datagrid.chunchun.util;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketsCoverAllValues() {
+     long previous = -1;
+     for (int i = 0; i < LatencyHistogram.indexOf(Long.MAX_VALUE); i++) {
+        long highest = LatencyHistogram.highestValueOf(i);
+        assert highest > previous : i;
+        assert LatencyHistogram.indexOf(highest) == i && LatencyHistogram.indexOf(previous + 1) == i : i;
+        previous = highest;
+     }
+  }
+
+  @Test
+  public void percentiles() {
+     LatencyHistogram histogram = new LatencyHistogram();
+     // 1..10000 us, one failed
+     for (int i = 1; i <= 10000; i++) {
+        histogram.record(i * 1000L, i == 5000);
+     }
+     assert histogram.getCount() == 10000 && histogram.getErrors() == 1;
+     assert histogram.getMax() == 10000 * 1000L;
+     assertClose(histogram.getPercentile(50), 5000 * 1000L);
+     assertClose(histogram.getPercentile(99), 9900 * 1000L);
+     assertClose(histogram.getPercentile(99.9), 9990 * 1000L);
+     assert histogram.getPercentile(100) == histogram.getMax();
+
+     histogram.reset();
+     assert histogram.getCount() == 0 && histogram.getPercentile(99) == 0 && histogram.getMax() == 0;
+  }
+
+  private static void assertClose(long actual, long expected) {
+     assert Math.abs(actual - expected) <= expected / 60 : actual + " not close to " + expected;
+  }
+}
@@ -0,0 +1,144 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+public class LoginSlotsTest {
+
+  private static final int SLOTS = 3000;
+  private static final int THREADS = 16;
+  private static final int ITERATIONS = Integer.getInteger("chunchun.test.slots.iterations", 200000);
+
+  @Test
+  public void acquireAll() {
+     LoginSlots slots = new LoginSlots(SLOTS);
+     Set<Integer> taken = new HashSet<Integer>();
+     for (int i = 0; i < SLOTS; i++) {
+        int slot = slots.acquire();
+        assert slot >= 1 && slot <= SLOTS : slot;
+        assert taken.add(slot) : slot;
+     }
+     assert slots.acquire() == LoginSlots.NONE;
+     assert slots.release(1234);
+     assert !slots.release(1234);
+     assert !slots.release(SLOTS + 1);
+     assert slots.acquire() == 1234;
+  }
+
+  @Test
+  public void concurrentLogins() throws Exception {
+     final LoginSlots slots = new LoginSlots(SLOTS);
+     // each thread keeps some users logged in so that slots are taken all over the words
+     final AtomicIntegerArray holders = new AtomicIntegerArray(SLOTS + 1);
+     final AtomicReference<String> failure = new AtomicReference<String>();
+     long nanos = run(new Allocator() {
+        public int acquire() {
+           int slot = slots.acquire();
+           if (slot != LoginSlots.NONE && !holders.compareAndSet(slot, 0, 1)) {
+              failure.set("slot " + slot + " handed out twice");
+           }
+           return slot;
+        }
+
+        public void release(int slot) {
+           holders.set(slot, 0);
+           if (!slots.release(slot)) {
+              failure.set("slot " + slot + " not taken");
+           }
+        }
+     });
+     assert failure.get() == null : failure.get();
+     assert slots.acquire() != LoginSlots.NONE;
+
+     final SynchronizedSlots old = new SynchronizedSlots(SLOTS);
+     long oldNanos = run(new Allocator() {
+        public int acquire() {
+           return old.acquire();
+        }
+
+        public void release(int slot) {
+           old.release(slot);
+        }
+     });
+     Reporter.log(THREADS + " threads, " + ITERATIONS + " logins each: lock-free " + nanos / 1000000 + " ms, synchronized map "
+           + oldNanos / 1000000 + " ms", true);
+  }
+
+  private static long run(final Allocator allocator) throws Exception {
+     final CountDownLatch start = new CountDownLatch(1);
+     Thread[] threads = new Thread[THREADS];
+     for (int t = 0; t < THREADS; t++) {
+        threads[t] = new Thread() {
+           public void run() {
+              int[] held = new int[16];
+              try {
+                 start.await();
+              } catch (InterruptedException e) {
+                 return;
+              }
+              for (int i = 0; i < ITERATIONS; i++) {
+                 int index = i & (held.length - 1);
+                 if (held[index] != 0) {
+                    allocator.release(held[index]);
+                 }
+                 held[index] = allocator.acquire();
+              }
+              for (int slot : held) {
+                 if (slot != 0) allocator.release(slot);
+              }
+           }
+        };
+        threads[t].start();
+     }
+     long begin = System.nanoTime();
+     start.countDown();
+     for (Thread thread : threads) {
+        thread.join();
+     }
+     return System.nanoTime() - begin;
+  }
+
+  private interface Allocator {
+     int acquire();
+
+     void release(int slot);
+  }
+
+  /*
+   * The allocator ChunchunServlet used before
+   */
+  private static class SynchronizedSlots {
+
+     private final Map<Integer, Boolean> userMap = new HashMap<Integer, Boolean>();
+     private final int size;
+
+     private SynchronizedSlots(int size) {
+        this.size = size;
+        for (int i = 1; i <= size; i++) {
+           userMap.put(i, false);
+        }
+     }
+
+     private synchronized int acquire() {
+        for (int index = 1; index <= size; index++) {
+           if (userMap.get(index).equals(false)) {
+              userMap.put(index, true);
+              return index;
+           }
+        }
+        throw new RuntimeException("All users logged in - no available users.");
+     }
+
+     private synchronized void release(int slot) {
+        userMap.put(slot, false);
+     }
+  }
+}
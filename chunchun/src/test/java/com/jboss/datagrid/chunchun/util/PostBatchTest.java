@@ -0,0 +1,74 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+public class PostBatchTest {
+
+  private DefaultCacheManager cacheManager;
+  private CacheContainerProvider provider;
+
+  @BeforeClass
+  public void startCacheManager() {
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+     provider = new LocalCacheContainerProvider(cacheManager);
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     cacheManager.stop();
+  }
+
+  @Test
+  public void split() {
+     List<String> messages = new ArrayList<String>();
+     for (int i = 0; i < PostBatch.SIZE * 2 + 1; i++) {
+        messages.add("message" + i);
+     }
+     List<List<String>> batches = PostBatch.split(messages);
+     assert batches.size() == 3;
+     assert batches.get(0).size() == PostBatch.SIZE && batches.get(2).size() == 1;
+     assert PostBatch.split(Collections.<String>emptyList()).isEmpty();
+  }
+
+  @Test
+  public void addPosts() {
+     new FollowGraph(provider).follow("fan", "author");
+     new FollowGraph(provider).follow("lurker", "author");
+     Timeline stored = new Timeline(100);
+     cacheManager.getCache("timelineCache").put("fan", stored);
+     User author = new User("author", "Name", "Surname", "pass", "", "user1.jpg");
+     List<Post> posts = new ArrayList<Post>();
+     for (int i = 0; i < 50; i++) {
+        posts.add(new Post("author", "message" + i));
+     }
+
+     PostBatch.addPosts(provider, author, posts);
+
+     assert author.getPostCount() == 50;
+     for (Post post : posts) {
+        assert cacheManager.getCache("postCache").get(post.getKey()) != null;
+     }
+     List<PostKey> timeline = ((Timeline) cacheManager.getCache("timelineCache").get("fan")).getPosts();
+     assert timeline.size() == 50 && timeline.get(0).equals(posts.get(49).getKey());
+     // changed as a copy, a rollback would leave the stored instance as it was
+     assert stored.size() == 0;
+     // merging a rebuilt timeline adds each post once
+     assert !((Timeline) cacheManager.getCache("timelineCache").get("fan")).add(posts.get(10).getKey());
+     // not yet materialized timelines are left to be built on first read
+     assert cacheManager.getCache("timelineCache").get("lurker") == null;
+  }
+}
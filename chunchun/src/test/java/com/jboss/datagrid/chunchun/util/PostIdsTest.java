@@ -0,0 +1,55 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.Post;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
+
+public class PostIdsTest {
+
+  @Test
+  public void idsAreUniqueAndIncreasing() {
+     long before = System.currentTimeMillis();
+     long previous = Long.MIN_VALUE;
+     // more than one millisecond worth of sequence numbers
+     for (int i = 0; i < 10000; i++) {
+        long id = PostIds.next();
+        assert id > previous;
+        previous = id;
+     }
+     assert PostIds.timeOf(previous) >= before;
+     assert PostIds.timeOf(PostIds.firstId(12345)) == 12345;
+
+     // posts of the same user in the same millisecond do not collide
+     Set<PostKey> keys = new HashSet<PostKey>();
+     for (int i = 0; i < 100; i++) {
+        Post post = new Post("user1", "message", 1000);
+        assert post.getTimeOfPost() == 1000;
+        assert keys.add(post.getKey());
+     }
+  }
+
+  @Test
+  public void timelineKeepsSortedIds() {
+     Timeline timeline = new Timeline(3);
+     PostKey first = new Post("user1", "1", 1000).getKey();
+     PostKey second = new Post("user2", "2", 1000).getKey();
+     PostKey third = new Post("user1", "3", 2000).getKey();
+     PostKey fourth = new Post("user3", "4", 3000).getKey();
+     timeline.add(third);
+     timeline.add(first);
+     timeline.add(fourth);
+     timeline.add(second);
+     assert timeline.getPosts().equals(Arrays.asList(fourth, third, second)) : timeline.getPosts();
+     assert timeline.isTruncated();
+     assert timeline.getOlder(third, 10).equals(Arrays.asList(second));
+     assert timeline.remove(third);
+     assert !timeline.remove(third);
+     assert timeline.getNewest(10).equals(Arrays.asList(fourth, second));
+  }
+}
@@ -0,0 +1,67 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+
+public class PostKeyMergerTest {
+
+  @Test
+  public void mergeNewestFirst() {
+     List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>();
+     iterators.add(newestFirst(new PostKey("user1", 10), new PostKey("user1", 40), new PostKey("user1", 50)));
+     iterators.add(newestFirst(new PostKey("user2", 20), new PostKey("user2", 30)));
+     iterators.add(newestFirst());
+     iterators.add(newestFirst(new PostKey("user3", 35)));
+
+     List<PostKey> merged = PostKeyMerger.merge(iterators, 4);
+     assert merged.equals(Arrays.asList(new PostKey("user1", 50), new PostKey("user1", 40),
+           new PostKey("user3", 35), new PostKey("user2", 30))) : merged;
+  }
+
+  @Test
+  public void mergeLessThanLimit() {
+     List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>();
+     iterators.add(newestFirst(new PostKey("user1", 10)));
+     iterators.add(newestFirst(new PostKey("user2", 20)));
+
+     List<PostKey> merged = PostKeyMerger.merge(iterators, 10);
+     assert merged.equals(Arrays.asList(new PostKey("user2", 20), new PostKey("user1", 10))) : merged;
+     assert PostKeyMerger.merge(new ArrayList<Iterator<PostKey>>(), 10).isEmpty();
+  }
+
+  @Test
+  public void mergeSince() {
+     List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>();
+     iterators.add(newestFirst(new PostKey("user1", 10), new PostKey("user1", 40)));
+     iterators.add(newestFirst(new PostKey("user2", 20), new PostKey("user2", 30)));
+
+     List<PostKey> merged = PostKeyMerger.merge(iterators, 10, 30);
+     assert merged.equals(Arrays.asList(new PostKey("user1", 40), new PostKey("user2", 30))) : merged;
+  }
+
+  @Test
+  public void sameMillisecondPostsKept() {
+     List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>();
+     iterators.add(newestFirst(new PostKey("user1", 10)));
+     iterators.add(newestFirst(new PostKey("user2", 10)));
+     iterators.add(newestFirst(new PostKey("user3", 10)));
+
+     List<PostKey> merged = PostKeyMerger.merge(iterators, 10);
+     assert merged.size() == 3 : merged;
+     assert PostKeyTimeComparator.getInstance().compare(new PostKey("user1", 10), new PostKey("user2", 10)) != 0;
+  }
+
+  // the same order UserPostKeyIterator returns posts in
+  private static Iterator<PostKey> newestFirst(PostKey... oldestFirst) {
+     List<PostKey> keys = new ArrayList<PostKey>(Arrays.asList(oldestFirst));
+     Collections.reverse(keys);
+     return keys.iterator();
+  }
+}
@@ -0,0 +1,98 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.Post;
+
+public class PostLogTest {
+
+  @Test
+  public void appendReopenAndStartOver() throws Exception {
+     File file = File.createTempFile("chunchun-posts", ".log");
+     file.deleteOnExit();
+     PostLog log = new PostLog(file, 4096);
+     assert log.unapplied().isEmpty();
+     Post first = new Post("user1", "first");
+     Post second = new Post("user2", "second \u010dun\u010dun");
+     Post third = new Post("user1", "third");
+     int firstEnd = log.append(Arrays.asList(first));
+     log.append(Arrays.asList(second, third));
+     log.sync(log.getAppendedRecords());
+     log.applied(firstEnd);
+     log.close();
+
+     // as after a crash, the second and third are not applied yet
+     log = new PostLog(file, 4096);
+     List<PostLog.Entry> entries = log.unapplied();
+     assert entries.size() == 2 : entries.size();
+     assert entries.get(0).getPost().getKey().equals(second.getKey());
+     assert entries.get(0).getPost().getMessage().equals(second.getMessage());
+     assert entries.get(1).getPost().getMessage().equals("third");
+     log.applied(entries.get(1).getEnd());
+     assert log.size() == 0;
+
+     // started over, older records are not read again
+     Post fourth = new Post("user3", "fourth");
+     log.append(Arrays.asList(fourth));
+     log.sync(log.getAppendedRecords());
+     log.close();
+     log = new PostLog(file, 4096);
+     entries = log.unapplied();
+     assert entries.size() == 1 && entries.get(0).getPost().getKey().equals(fourth.getKey());
+     log.close();
+  }
+
+  @Test
+  public void deletedPostsAreNotReplayed() throws Exception {
+     File file = File.createTempFile("chunchun-posts", ".log");
+     file.deleteOnExit();
+     PostLog log = new PostLog(file, 4096);
+     assert log.appendDeletion(new Post("user1", "nothing unapplied").getKey()) == PostLog.NONE;
+     Post kept = new Post("user1", "kept");
+     Post deleted = new Post("user1", "deleted");
+     log.append(Arrays.asList(kept, deleted));
+     int end = log.appendDeletion(deleted.getKey());
+     assert end != PostLog.NONE;
+     log.sync(log.getAppendedRecords());
+     log.close();
+
+     log = new PostLog(file, 4096);
+     List<PostLog.Entry> entries = log.unapplied();
+     assert entries.size() == 1 && entries.get(0).getPost().getKey().equals(kept.getKey());
+     // the deletion after it is covered too
+     assert entries.get(0).getEnd() == end;
+     log.applied(entries.get(0).getEnd());
+     assert log.size() == 0;
+
+     // nothing left once the only post is deleted, started over right away
+     Post alone = new Post("user2", "alone");
+     log.append(Arrays.asList(alone));
+     log.appendDeletion(alone.getKey());
+     log.sync(log.getAppendedRecords());
+     log.close();
+     log = new PostLog(file, 4096);
+     assert log.unapplied().isEmpty();
+     assert log.size() == 0;
+     log.close();
+  }
+
+  @Test
+  public void full() throws Exception {
+     File file = File.createTempFile("chunchun-posts", ".log");
+     file.deleteOnExit();
+     PostLog log = new PostLog(file, 256);
+     List<Post> posts = new ArrayList<Post>();
+     for (int i = 0; i < 10; i++) {
+        posts.add(new Post("user1", "message number " + i));
+     }
+     assert log.append(posts) == PostLog.NONE;
+     assert log.append(posts.subList(0, 2)) != PostLog.NONE;
+     assert log.size() > 0;
+     log.close();
+  }
+}
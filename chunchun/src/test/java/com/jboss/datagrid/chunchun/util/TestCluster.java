@@ -0,0 +1,77 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+
+/**
+ * Cache managers clustered in this JVM over the loopback stack of jgroups-test-tcp.xml. Caches
+ * of the tests should not fetch state, nodes leaving at the end would wait for each other.
+ */
+public class TestCluster {
+
+  private final List<DefaultCacheManager> managers = new ArrayList<DefaultCacheManager>();
+
+  public TestCluster(String name, int nodes, Configuration defaultConfiguration) {
+     for (int i = 0; i < nodes; i++) {
+        GlobalConfigurationBuilder global = GlobalConfigurationBuilder.defaultClusteredBuilder();
+        global.globalJmxStatistics().allowDuplicateDomains(true);
+        // bounds the wait for the coordinator when all the nodes leave at once
+        global.transport().clusterName(name).distributedSyncTimeout(5000)
+              .addProperty("configurationFile", "jgroups-test-tcp.xml");
+        ChunchunExternalizers.register(global.serialization());
+        managers.add(new DefaultCacheManager(global.build(), defaultConfiguration, true));
+     }
+  }
+
+  public DefaultCacheManager get(int node) {
+     return managers.get(node);
+  }
+
+  public List<DefaultCacheManager> getManagers() {
+     return managers;
+  }
+
+  /*
+   * Starts the caches on all nodes and waits until each of them sees all the members
+   */
+  public void startCaches(String... cacheNames) throws InterruptedException {
+     for (DefaultCacheManager manager : managers) {
+        for (String cacheName : cacheNames) {
+           manager.getCache(cacheName);
+        }
+     }
+     long deadline = System.currentTimeMillis() + 30000;
+     for (DefaultCacheManager manager : managers) {
+        for (String cacheName : cacheNames) {
+           AdvancedCache<Object, Object> cache = manager.getCache(cacheName).getAdvancedCache();
+           while (cache.getDistributionManager().getReadConsistentHash().getMembers().size() < managers.size()
+                 || cache.getComponentRegistry().getStateTransferManager().isStateTransferInProgress()) {
+              assert System.currentTimeMillis() < deadline : "cluster did not form";
+              Thread.sleep(100);
+           }
+        }
+     }
+  }
+
+  public void stop() throws InterruptedException {
+     // all at once, leaving one by one rebalances the remaining nodes each time
+     List<Thread> stopping = new ArrayList<Thread>();
+     for (final DefaultCacheManager manager : managers) {
+        Thread thread = new Thread() {
+           public void run() {
+              manager.stop();
+           }
+        };
+        thread.start();
+        stopping.add(thread);
+     }
+     for (Thread thread : stopping) {
+        thread.join();
+     }
+  }
+}
@@ -6,6 +6,8 @@ import org.testng.Reporter;
 import org.testng.TestException;
 import org.testng.annotations.Test;
 
+import com.jboss.datagrid.chunchun.model.FollowChunkKey;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
 import com.jboss.datagrid.chunchun.model.PostKey;
 
 public class TwoWayKey2StringChunchunMapperTest {
@@ -17,6 +19,9 @@ public class TwoWayKey2StringChunchunMapperTest {
         new PostKey("user5", 1l),
         new PostKey("user3", -1l),
         new PostKey("user7", System.currentTimeMillis()),
+        new PostBucketKey("user2", PostBucketKey.dayOf(System.currentTimeMillis())),
+        new PostBucketKey("user2", -1l),
+        new FollowChunkKey("user4", 63),
         -123124l,
         123,
         "hahaha",
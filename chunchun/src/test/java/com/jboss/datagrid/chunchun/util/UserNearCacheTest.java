@@ -0,0 +1,63 @@
+package com.jboss.datagrid.chunchun.util;
+
+import javax.transaction.TransactionManager;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.transaction.LockingMode;
+import org.infinispan.transaction.TransactionMode;
+import org.infinispan.transaction.lookup.DummyTransactionManagerLookup;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.User;
+
+public class UserNearCacheTest {
+
+  private DefaultCacheManager cacheManager;
+  private Cache<String, Object> userCache;
+
+  @BeforeClass
+  public void startCacheManager() {
+     ConfigurationBuilder builder = new ConfigurationBuilder();
+     builder.transaction().transactionMode(TransactionMode.TRANSACTIONAL).lockingMode(LockingMode.OPTIMISTIC)
+           .transactionManagerLookup(new DummyTransactionManagerLookup());
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build(),
+           builder.build());
+     userCache = cacheManager.getCache("userCache");
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     cacheManager.stop();
+  }
+
+  @Test
+  public void invalidatedOnChange() throws Exception {
+     UserNearCache nearCache = new UserNearCache(userCache, 2, 60000);
+     userCache.put("user1", new User("user1", "Name1", "Surname1", "pass1", "", "user1.jpg"));
+     assert nearCache.get("user1").getName().equals("Name1");
+     assert nearCache.get("user1").getName().equals("Name1");
+     assert nearCache.getHits() == 1 && nearCache.getMisses() == 1;
+
+     TransactionManager tm = userCache.getAdvancedCache().getTransactionManager();
+     tm.begin();
+     userCache.replace("user1", new User("user1", "Renamed1", "Surname1", "pass1", "", "user1.jpg"));
+     tm.commit();
+     assert nearCache.get("user1").getName().equals("Renamed1");
+
+     userCache.remove("user1");
+     assert nearCache.get("user1") == null;
+
+     // bounded, the least recently used user is dropped
+     for (int i = 2; i <= 4; i++) {
+        userCache.put("user" + i, new User("user" + i, "Name" + i, "Surname" + i, "pass" + i, "", "user" + i + ".jpg"));
+        nearCache.get("user" + i);
+     }
+     assert nearCache.size() == 2;
+     nearCache.stop();
+  }
+}
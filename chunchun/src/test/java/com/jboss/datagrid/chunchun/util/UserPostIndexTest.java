@@ -0,0 +1,73 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infinispan.api.BasicCache;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+public class UserPostIndexTest {
+
+  private static final long HOUR = 3600 * 1000;
+
+  private DefaultCacheManager cacheManager;
+  private CacheContainerProvider provider;
+
+  @BeforeClass
+  public void startCacheManager() {
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+     provider = new LocalCacheContainerProvider(cacheManager);
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     cacheManager.stop();
+  }
+
+  @Test
+  public void archiveAndIterate() {
+     BasicCache<PostBucketKey, Object> index = cacheManager.getCache(UserPostIndex.CACHE_NAME);
+     User user = new User("user1", "Name", "Surname", "pass1", "", "user1.jpg");
+     // 10 posts a day over 10 days
+     int count = 100;
+     for (int i = 0; i < count; i++) {
+        UserPostIndex.addPost(user, new PostKey("user1", 1000 * HOUR + i * 2 * HOUR + i), index);
+     }
+     assert user.getPosts().size() == UserPostIndex.RECENT_POSTS_SIZE;
+     assert user.getPostCount() == count;
+     assert user.getNewestArchivedDay() != User.NO_ARCHIVED_POSTS;
+
+     List<PostKey> all = keys(new UserPostKeyIterator(user, provider));
+     assert all.size() == count : all.size();
+     for (int i = 0; i < count; i++) {
+        assert all.get(i).getTimeOfPost() == 1000 * HOUR + (count - 1 - i) * 2 * HOUR + (count - 1 - i);
+     }
+
+     // cursor pointing into an archived bucket
+     List<PostKey> older = keys(new UserPostKeyIterator(user, provider, all.get(80)));
+     assert older.equals(all.subList(81, count)) : older;
+
+     // removing archived post
+     assert UserPostIndex.removePost(user, all.get(90), index);
+     assert !UserPostIndex.removePost(user, all.get(90), index);
+     assert user.getPostCount() == count - 1;
+     assert keys(new UserPostKeyIterator(user, provider)).size() == count - 1;
+  }
+
+  private static List<PostKey> keys(UserPostKeyIterator iterator) {
+     List<PostKey> keys = new ArrayList<PostKey>();
+     while (iterator.hasNext()) {
+        keys.add(iterator.next());
+     }
+     return keys;
+  }
+}
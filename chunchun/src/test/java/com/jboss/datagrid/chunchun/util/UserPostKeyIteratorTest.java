@@ -0,0 +1,41 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+
+public class UserPostKeyIteratorTest {
+
+  @Test
+  public void iterateBeforeCursor() {
+     User user = new User("user1", "Name", "Surname", "pass1", "", "user1.jpg");
+     for (long time = 10; time <= 50; time += 10) {
+        user.getPosts().add(new PostKey("user1", time));
+     }
+
+     // cursor pointing at an existing post skips it
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user1", 30))).equals(
+           Arrays.asList(new PostKey("user1", 20), new PostKey("user1", 10)));
+     // cursor of another user's post in between
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user2", 35))).equals(
+           Arrays.asList(new PostKey("user1", 30), new PostKey("user1", 20), new PostKey("user1", 10)));
+     // same millisecond posts are ordered by owner
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user0", 30))).size() == 2;
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user2", 30))).size() == 3;
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user1", 10))).isEmpty();
+     assert keys(new UserPostKeyIterator(user, null, new PostKey("user1", 100))).size() == 5;
+  }
+
+  private static List<PostKey> keys(UserPostKeyIterator iterator) {
+     List<PostKey> keys = new ArrayList<PostKey>();
+     while (iterator.hasNext()) {
+        keys.add(iterator.next());
+     }
+     return keys;
+  }
+}
@@ -0,0 +1,81 @@
+package com.jboss.datagrid.chunchun.util;
+
+
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+
+/**
+ * Compares partitioned user stats with the per watched user lookups they replace.
+ */
+public class UserStatsTest {
+
+  private static final int USERS = 1000;
+  private static final int WATCHES = 20;
+
+  private DefaultCacheManager cacheManager;
+  private CacheContainerProvider provider;
+
+  @BeforeClass
+  public void startCacheManager() {
+     cacheManager = new DefaultCacheManager(new GlobalConfigurationBuilder().globalJmxStatistics().allowDuplicateDomains(true).build());
+     provider = new LocalCacheContainerProvider(cacheManager);
+     FollowGraph followGraph = new FollowGraph(provider);
+     for (int i = 1; i <= USERS; i++) {
+        cacheManager.getCache("userCache").put("user" + i, new User("user" + i, "Name", "Surname", "pass", "", "user1.jpg"));
+        // every third user watches one user less, neighbours watch each other
+        int watches = i % 3 == 0 ? WATCHES - 1 : WATCHES;
+        for (int j = 1; j <= watches; j++) {
+           followGraph.follow("user" + i, "user" + ((i + j * (i % 2 == 0 ? 1 : 7)) % USERS + 1));
+        }
+     }
+  }
+
+  @AfterClass
+  public void stopCacheManager() {
+     cacheManager.stop();
+  }
+
+  @Test
+  public void sameAsLookups() {
+     FollowGraph followGraph = new FollowGraph(provider);
+     int lessWatches = 0;
+     int lessMutual = 0;
+     int moreMutual = 0;
+     long start = System.nanoTime();
+     for (int i = 1; i <= USERS; i++) {
+        String username = "user" + i;
+        int mutual = 0;
+        for (String user : followGraph.getFollowing(username)) {
+           if (followGraph.isFollowing(user, username)) mutual++;
+        }
+        if (followGraph.getFollowing(username).size() < WATCHES) lessWatches++;
+        if (mutual * 100l < 50l * WATCHES) lessMutual++;
+        else if (mutual * 100l - 1l >= 50l * WATCHES) moreMutual++;
+     }
+     long lookups = System.nanoTime() - start;
+
+     final int[] partitionUsers = new int[1];
+     start = System.nanoTime();
+     UserStats stats = UserStats.collect(provider, USERS, WATCHES, 50, true, new UserStats.PartitionListener() {
+        public void partitionDone(UserStats partition) {
+           partitionUsers[0] += partition.getUsernames().size();
+        }
+     });
+     long partitioned = System.nanoTime() - start;
+     Reporter.log("per watched user lookups " + lookups / 1000000 + " ms, partitioned " + partitioned / 1000000 + " ms", true);
+
+     assert partitionUsers[0] == USERS;
+     assert stats.getLessWatches() == lessWatches && lessWatches == USERS / 3;
+     assert stats.getMoreWatches() == 0;
+     assert stats.getLessMutualWatches() == lessMutual : stats.getLessMutualWatches() + " != " + lessMutual;
+     assert stats.getMoreMutualWatches() == moreMutual;
+     assert stats.getWatchSelf() == 0;
+  }
+}
@@ -0,0 +1,76 @@
+package com.jboss.datagrid.chunchun.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.marshall.StreamingMarshaller;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
+import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.User;
+
+/**
+ * Timeline merged on the grid has to match the one merged out of users pulled to the caller.
+ * Marshalled sizes of both are written to the TestNG report.
+ */
+public class WatchedPostsTaskTest {
+
+  private static final int USERS = 200;
+  private static final int POSTS = 50;
+  private static final int LIMIT = 20;
+
+  private TestCluster cluster;
+
+  @BeforeClass
+  public void startCluster() throws Exception {
+     ConfigurationBuilder builder = new ConfigurationBuilder();
+     builder.clustering().cacheMode(CacheMode.DIST_SYNC).hash().numOwners(1).groups().enabled()
+           .stateTransfer().fetchInMemoryState(false).timeout(5000);
+     cluster = new TestCluster("chunchun-task-test", 2, builder.build());
+     cluster.startCaches("userCache", UserPostIndex.CACHE_NAME);
+  }
+
+  @AfterClass(alwaysRun = true)
+  public void stopCluster() throws InterruptedException {
+     cluster.stop();
+  }
+
+  @Test
+  public void sameAsLocalMerge() throws Exception {
+     Cache<String, Object> userCache = cluster.get(0).getCache("userCache");
+     Cache<PostBucketKey, Object> postIndex = cluster.get(0).getCache(UserPostIndex.CACHE_NAME);
+     List<String> usernames = new ArrayList<String>();
+     List<Iterator<PostKey>> iterators = new ArrayList<Iterator<PostKey>>();
+     StreamingMarshaller marshaller = userCache.getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+     long userBytes = 0;
+     for (int i = 0; i < USERS; i++) {
+        User user = new User("user" + i, "Name", "Surname", "pass", "", "user.jpg");
+        for (int j = 0; j < POSTS; j++) {
+           UserPostIndex.addPost(user, new PostKey(user.getUsername(), 1000L * (j * USERS + i)), postIndex);
+        }
+        userCache.put(user.getUsername(), user);
+        usernames.add(user.getUsername());
+        iterators.add(new UserPostKeyIterator(user, null));
+        userBytes += marshaller.objectToByteBuffer(user).length;
+     }
+     List<PostKey> expected = PostKeyMerger.merge(iterators, LIMIT);
+
+     List<PostKey> merged = WatchedPostsTask.loadPosts(userCache, usernames, LIMIT, Long.MIN_VALUE);
+     assert merged.equals(expected) : merged;
+     PostKey before = expected.get(LIMIT / 2);
+     assert WatchedPostsTask.loadPostsBefore(userCache, usernames, before, LIMIT / 2 - 1).equals(expected.subList(LIMIT / 2 + 1, LIMIT));
+
+     // every node answers with at most LIMIT keys
+     long resultBytes = cluster.getManagers().size() * marshaller.objectToByteBuffer(merged).length;
+     Reporter.log("users pulled: " + userBytes + " B, grid results at most: " + resultBytes + " B", true);
+     assert resultBytes * 10 < userBytes;
+  }
+}
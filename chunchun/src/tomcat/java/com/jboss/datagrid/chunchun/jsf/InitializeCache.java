@@ -22,9 +22,12 @@
 package com.jboss.datagrid.chunchun.jsf;
 
 import com.jboss.datagrid.chunchun.model.Post;
-import com.jboss.datagrid.chunchun.model.PostKey;
 import com.jboss.datagrid.chunchun.model.User;
 import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
+import com.jboss.datagrid.chunchun.session.PostCoalescer;
+import com.jboss.datagrid.chunchun.util.Avatars;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
+import com.jboss.datagrid.chunchun.util.PostBatch;
 import org.infinispan.CacheImpl;
 import org.infinispan.api.BasicCache;
 
@@ -35,19 +38,21 @@ import javax.faces.application.Application;
 import javax.faces.event.AbortProcessingException;
 import javax.faces.event.SystemEvent;
 import javax.faces.event.SystemEventListener;
-import javax.imageio.ImageIO;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.transaction.TransactionManager;
-import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
@@ -76,26 +81,33 @@ public class InitializeCache implements SystemEventListener {
 
    @Override
    public void processEvent(SystemEvent event) throws AbortProcessingException {
-      provider = getContextualInstance(getBeanManagerFromJNDI(), CacheContainerProvider.class);
+      BeanManager beanManager = getBeanManagerFromJNDI();
+      provider = getContextualInstance(beanManager, CacheContainerProvider.class);
       startup();
+      // store posts logged but not stored before the last shutdown
+      getContextualInstance(beanManager, PostCoalescer.class).openLog();
    }
 
    public void startup() {
       BasicCache<String, Object> users = provider.getCacheContainer().getCache("userCache");
-      BasicCache<PostKey, Object> posts = provider.getCacheContainer().getCache("postCache");
+      BasicCache<String, Object> avatars = provider.getCacheContainer().getCache("avatarCache");
 
       tm = ((CacheImpl) users).getAdvancedCache().getTransactionManager();
 
       try {
          tm.begin();
+         String userImageHash = Avatars.store(avatars, "user1.jpg", loadImageFromFile("images" + File.separator + "user1.jpg"));
+         String noPhotoHash = Avatars.store(avatars, "nophoto.jpg", loadImageFromFile("images" + File.separator + "nophoto.jpg"));
          for (int i = 1; i <= USER_COUNT; i++) {
             User u = null;
             if (i % 2 == 1) {
                u = new User("user" + i, "Name" + i, "Surname" + i, "tmpPasswd",
-                        "Description of person " + i, loadImageFromFile("images" + File.separator + "user1.jpg"));
+                        "Description of person " + i, "user1.jpg");
+               u.setAvatarHash(userImageHash);
             } else {
                u = new User("user" + i, "Name" + i, "Surname" + i, "tmpPasswd",
-                        "Description of person " + i, loadImageFromFile("images" + File.separator + "nophoto.jpg"));
+                        "Description of person " + i, "nophoto.jpg");
+               u.setAvatarHash(noPhotoHash);
             }
             
             String encryptedPass = hashPassword("pass" + i);
@@ -108,28 +120,30 @@ public class InitializeCache implements SystemEventListener {
                 randomTimesSorted.add(getRandomTime());
             }
 
+            List<Post> userPosts = new ArrayList<Post>();
+
             for (int j = 1; j != numGeneratedPosts; j++) {
                long randomTime = randomTimesSorted.pollFirst();
                Post t = new Post(u.getUsername(), "Post number " + j + " for user "
                         + u.getName() + " at " + new Date(randomTime), randomTime);
-               // store the post in a cache
-               posts.put(t.getKey(), t);
-               u.getPosts().add(t.getKey());
+               userPosts.add(t);
             }
+            // store the posts in a cache, all at once
+            PostBatch.addPosts(provider, u, userPosts);
             // store the user in a cache
             users.put(u.getUsername(), u);
          }
 
          // GENERATE RANDOM WATCHERS AND WATCHING FOR EACH USER
+         FollowGraph followGraph = new FollowGraph(provider);
          for (int i = 1; i != USER_COUNT; i++) {
             User u = (User) users.get("user" + i);
             for (User watcher : generateRandomUsers(u, 20, USER_COUNT)) {
-               u.getWatchers().add(watcher.getUsername());
+               followGraph.follow(watcher.getUsername(), u.getUsername());
             }
             for (User watching : generateRandomUsers(u, 20, USER_COUNT)) {
-               u.getWatching().add(watching.getUsername());
+               followGraph.follow(u.getUsername(), watching.getUsername());
             }
-            users.replace("user" + i, u);
          }
 
          tm.commit();
@@ -146,11 +160,15 @@ public class InitializeCache implements SystemEventListener {
       }
    }
    
-   private BufferedImage loadImageFromFile(String fileName) {
-      BufferedImage image = null;
+   private byte[] loadImageFromFile(String fileName) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int length;
       try {
-         image = ImageIO.read(this.getClass().getClassLoader().getResourceAsStream(fileName));
-         return image;
+         InputStream image = this.getClass().getClassLoader().getResourceAsStream(fileName);
+         while ((length = image.read(buffer)) != -1) out.write(buffer, 0, length);
+         image.close();
+         return out.toByteArray();
       } catch (IOException e) {
          throw new RuntimeException("Unable to load image from file " + fileName);
       }
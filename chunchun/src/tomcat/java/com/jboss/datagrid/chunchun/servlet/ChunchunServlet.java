@@ -1,12 +1,15 @@
 package com.jboss.datagrid.chunchun.servlet;
 
 import com.jboss.datagrid.chunchun.jsf.InitializeCache;
+import com.jboss.datagrid.chunchun.model.PostKey;
 import com.jboss.datagrid.chunchun.model.User;
 import com.jboss.datagrid.chunchun.session.Authenticator;
+import com.jboss.datagrid.chunchun.session.CacheContainerProvider;
 import com.jboss.datagrid.chunchun.session.DisplayPost;
+import com.jboss.datagrid.chunchun.util.LatencyHistogram;
+import com.jboss.datagrid.chunchun.util.LoginSlots;
+import com.jboss.datagrid.chunchun.util.UserNearCache;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -15,6 +18,7 @@ import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,31 +38,72 @@ import com.jboss.datagrid.chunchun.session.UserBean;
 @WebServlet(urlPatterns={"/chunchunservlet"})
 public class ChunchunServlet extends HttpServlet {
 
-   private static Map<Integer, Boolean> userMap = new HashMap<Integer, Boolean>();
+   // logged in users of the servlet, user index is the slot
+   private static final LoginSlots userSlots = new LoginSlots(InitializeCache.USER_COUNT);
 
-   static {
-      for (int i = 1; i != InitializeCache.USER_COUNT; i++) {
-         userMap.put(new Integer(i), false); //false == not currently in use == not logged in; true == logged in
+   private static int getNextAvailableUser() {
+      int index = userSlots.acquire();
+      if (index == LoginSlots.NONE) {
+         throw new RuntimeException("All users logged in - no available users.");
       }
+      return index;
    }
 
-   private static synchronized int getNextAvailableUser() {
-      int index = 1;
-      while (index != InitializeCache.USER_COUNT) {
-         if (userMap.get(index).equals(false)) {
-            userMap.put(index, true);
-            return index;
-         }
-         index++;
+   private static void markUserAsLoggedOut(int index) {
+      userSlots.release(index);
+   }
+
+   /*
+    * Parses "postId:owner" continuation cursor, null if missing or malformed
+    */
+   private static PostKey parseCursor(String cursor) {
+      if (cursor == null) return null;
+      int separator = cursor.indexOf(':');
+      if (separator <= 0 || separator == cursor.length() - 1) return null;
+      try {
+         return PostKey.withId(cursor.substring(separator + 1), Long.parseLong(cursor.substring(0, separator)));
+      } catch (NumberFormatException e) {
+         return null;
       }
-      throw new RuntimeException("All users logged in - no available users.");
    }
 
-   private static synchronized void markUserAsLoggedOut(int index) {
-      userMap.put(index, false);
+   // latencies of the commands, also published through JMX
+   private final CommandMetrics metrics = new CommandMetrics();
+
+   // client proxies of the beans resolved once, they find the current session themselves
+   private Authenticator auth;
+   private PostBean postBean;
+   private UserBean userBean;
+   private CacheContainerProvider provider;
+
+   @Override
+   public void init() throws ServletException {
+      BeanManager manager = getBeanManagerFromJNDI();
+      auth = getContextualInstance(manager, Authenticator.class);
+      postBean = getContextualInstance(manager, PostBean.class);
+      userBean = getContextualInstance(manager, UserBean.class);
+      provider = getContextualInstance(manager, CacheContainerProvider.class);
+      metrics.register();
+   }
+
+   @Override
+   public void destroy() {
+      metrics.unregister();
    }
 
    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws javax.servlet.ServletException, IOException {
+      String command = request.getParameter("command");
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         processCommand(request, response);
+         failed = false;
+      } finally {
+         metrics.record(command, System.nanoTime() - start, failed);
+      }
+   }
+
+   private void processCommand(HttpServletRequest request, HttpServletResponse response) throws IOException {
       String command = request.getParameter("command");
       String userParam = request.getParameter("user"); //in case we need to specify a user for an operation
       int displayLimitParam = 10; //in case we want to specify how many posts to display
@@ -68,7 +113,7 @@ public class ChunchunServlet extends HttpServlet {
          // do nothing, default value for displayLimitParam used
       }
 
-      StringBuilder answer = new StringBuilder();
+      CommandWriter answer = CommandWriter.create(request.getParameter("format"), response);
       Authenticator auth = getAuthenticator();
       PostBean postBean = getPostBean();
       UserBean userBean = getUserBean();
@@ -85,7 +130,7 @@ public class ChunchunServlet extends HttpServlet {
             auth.setUsername(username);
             auth.setPassword(password);
             auth.login();
-            answer.append("\n").append("User Logged in");
+            answer.message("User Logged in");
          }
 
       } else if ("logout".equals(command)) {
@@ -97,18 +142,36 @@ public class ChunchunServlet extends HttpServlet {
 
          ChunchunServlet.markUserAsLoggedOut(index);
          auth.logoutFromServlet();
-         answer.append("\n").append("User Logged out");
+         answer.message("User Logged out");
 
       } else if ("recentposts".equals(command)) {
 
          //http://localhost:8080/chunchun/chunchunservlet?command=recentposts     //limit defaults to 10
          //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&limit=20
+         //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&since=<newestPostId>     //only posts newer than the "Newest:" post id of an earlier call
+         //http://localhost:8080/chunchun/chunchunservlet?command=recentposts&before=<postId>:<owner>     //next page after the "Next:" cursor, as printed there
 
          postBean.setDisplayedPostsLimit(displayLimitParam);
-         List<DisplayPost> recentPosts = postBean.getRecentPosts();
-         answer.append("\n").append("Displayed: " + postBean.getDisplayedPostsLimit()).append("\n");
+         List<DisplayPost> recentPosts;
+         PostKey before = parseCursor(request.getParameter("before"));
+         if (before != null) {
+            recentPosts = postBean.getRecentPostsBefore(before, displayLimitParam);
+         } else {
+            try {
+               recentPosts = postBean.getRecentPostsSince(Long.parseLong(request.getParameter("since")));
+            } catch (NumberFormatException e) {
+               recentPosts = postBean.getRecentPosts();
+            }
+         }
+         answer.field("displayed", "Displayed", postBean.getDisplayedPostsLimit());
+         answer.field("newest", "Newest", postBean.getNewestPostId());
+         if (!recentPosts.isEmpty()) {
+            DisplayPost last = recentPosts.get(recentPosts.size() - 1);
+            answer.field("next", "Next", last.getPostId() + ":" + last.getOwnerUsername());
+         }
+         answer.separator();
          for (DisplayPost post : recentPosts) {
-            answer.append("\n").append(post.getMessage());
+            answer.post(post);
          }
 
       } else if ("newpost".equals(command)) {
@@ -117,15 +180,21 @@ public class ChunchunServlet extends HttpServlet {
 
          postBean.setMessage("New message from mgencur");
          postBean.sendPost();
-         answer.append("\n").append("New post sent: " + postBean.getMessage());
+         answer.message("New post sent", postBean.getMessage());
 
       } else if ("myposts".equals(command)) {
 
-         //http://localhost:8080/chunchun/chunchunservlet?command=myposts
+         //http://localhost:8080/chunchun/chunchunservlet?command=myposts     //limit defaults to 10
+         //http://localhost:8080/chunchun/chunchunservlet?command=myposts&limit=20&before=<postId>:<owner>     //next page after the "Next:" cursor, as printed there
 
-         List<DisplayPost> myPosts = postBean.getMyPosts();
+         List<DisplayPost> myPosts = postBean.getUserPosts(auth.getUser(), parseCursor(request.getParameter("before")), displayLimitParam);
+         if (!myPosts.isEmpty()) {
+            DisplayPost last = myPosts.get(myPosts.size() - 1);
+            answer.field("next", "Next", last.getPostId() + ":" + last.getOwnerUsername());
+            answer.separator();
+         }
          for (DisplayPost post : myPosts) {
-            answer.append("\n").append(post.getMessage());
+            answer.post(post);
          }
 
       } else if ("watching".equals(command)) {
@@ -134,7 +203,7 @@ public class ChunchunServlet extends HttpServlet {
 
          List<User> watchedByMe = userBean.getWatching();
          for (User user : watchedByMe) {
-            answer.append("\n").append(user.getName() + " (" + user.getWhoami() + ")");
+            answer.user(user);
          }
 
       } else if ("watchers".equals(command)) {
@@ -143,7 +212,7 @@ public class ChunchunServlet extends HttpServlet {
 
          List<User> watchers = userBean.getWatchers();
          for (User user : watchers) {
-            answer.append("\n").append(user.getName() + " (" + user.getWhoami() + ")");
+            answer.user(user);
          }
 
       } else if ("watchuser".equals(command)) { //watch user according to userParam parameter
@@ -155,9 +224,9 @@ public class ChunchunServlet extends HttpServlet {
             if (u.getName().equals(userParam)) {
                if (!userBean.isWatchedByMe(u) && !userBean.isMe(u)) {
                   userBean.watchUser(u);
-                  answer.append("\n").append("Started watching user " + u.getName());
+                  answer.message("Started watching user " + u.getName());
                }  else {
-                  answer.append("\n").append("NoOP - I'm already watching that user");
+                  answer.message("NoOP - I'm already watching that user");
                }
             }
          }
@@ -173,30 +242,37 @@ public class ChunchunServlet extends HttpServlet {
             }
          }
 
+      } else if ("metrics".equals(command)) {
+
+         //http://localhost:8080/chunchun/chunchunservlet?command=metrics     //latencies in microseconds
+         //http://localhost:8080/chunchun/chunchunservlet?command=metrics&reset=true     //starts over after reporting, e.g. between load test runs
+
+         for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            answer.latency(entry.getKey(), entry.getValue());
+         }
+         UserNearCache nearCache = provider.getUserNearCache();
+         if (nearCache != null) {
+            answer.field("userNearCacheHits", "User near cache hits", nearCache.getHits());
+            answer.field("userNearCacheMisses", "User near cache misses", nearCache.getMisses());
+            answer.field("userNearCacheHitRateX100", "User near cache hit rate (x100)", Math.round(nearCache.getHitRate() * 100));
+         }
+         if ("true".equals(request.getParameter("reset"))) metrics.reset();
       } else {
-         answer.append("\n").append("Unknown command");
+         answer.message("Unknown command");
       }
 
-//      if( answer.toString().length() != 0) {
-//         response.setHeader("answer", answer.toString());
-//      }
-      PrintWriter out = response.getWriter();
-      out.print(answer.toString());
-      out.flush();
+      answer.finish();
    }
 
    private Authenticator getAuthenticator() {
-      Authenticator auth = getContextualInstance(getBeanManagerFromJNDI(), Authenticator.class);
       return auth;
    }
 
    private PostBean getPostBean() {
-      PostBean postBean = getContextualInstance(getBeanManagerFromJNDI(), PostBean.class);
       return postBean;
    }
 
    private UserBean getUserBean() {
-      UserBean userBean = getContextualInstance(getBeanManagerFromJNDI(), UserBean.class);
       return userBean;
    }
 
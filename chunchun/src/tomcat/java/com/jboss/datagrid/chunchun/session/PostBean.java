@@ -22,21 +22,35 @@
 package com.jboss.datagrid.chunchun.session;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.transaction.TransactionManager;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.jboss.datagrid.chunchun.model.Post;
 import org.infinispan.CacheImpl;
 import org.infinispan.api.BasicCache;
+import com.jboss.datagrid.chunchun.model.PostBucketKey;
 import com.jboss.datagrid.chunchun.model.PostKey;
+import com.jboss.datagrid.chunchun.model.Timeline;
 import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
+import com.jboss.datagrid.chunchun.util.PostBatch;
+import com.jboss.datagrid.chunchun.util.PostIds;
+import com.jboss.datagrid.chunchun.util.PostKeyMerger;
+import com.jboss.datagrid.chunchun.util.UserPostIndex;
+import com.jboss.datagrid.chunchun.util.UserPostKeyIterator;
+import com.jboss.datagrid.chunchun.util.WatchedPostsTask;
 
 /**
  * Handles post operations (sending posts, listing recent posts from all watched people,
@@ -56,35 +70,29 @@ public class PostBean implements Serializable {
    private static final int INCREASE_LOADED_BY = 50; //increase loadedPosts by
    private int showedPosts = 10;
    private static final int INCREASE_SHOWED_BY = 10; //increase showedPosts by
+   private static final int TIMELINE_SIZE = Integer.getInteger("chunchun.timeline.size", 100);
+   // posts are stamped before their transaction commits, a rebuild looks this far back for ones it missed
+   private static final int SEND_DURATION = 1000;
+   private static final int MY_POSTS_PAGE_SIZE = 8;
+   private static final int WATCHED_USER_POSTS_PAGE_SIZE = 10;
    
-   private static final long MINUTE = 60 * 1000;
-   private static final long TEN_MINUTES = 10 * MINUTE;
-   private static final long THIRTY_MINUTES = 30 * MINUTE;
-   private static final long HOUR = 60 * MINUTE;
-   private static final long TWELVE_HOURS = 12 * HOUR;
-   private static final long DAY = 24 * HOUR;
-   private static final long THREE_DAYS = DAY * 3;
-   private static final long SEVEN_DAYS = DAY * 7;
-   
-   private static final long LOW_WATCH_LIMIT = 50;
-   private static final long MEDIUM_WATCH_LIMIT = 300;
-   private static final long HIGH_WATCH_LIMIT = 1000;
-
-   //shorten time steps with increasing number of people that I'm watching
-   private static long agesByNumOfWatched[][] = {
-            { DAY, THREE_DAYS, SEVEN_DAYS }, 
-            { HOUR, TWELVE_HOURS, DAY, THREE_DAYS, SEVEN_DAYS },
-            { MINUTE, THIRTY_MINUTES, HOUR, DAY, SEVEN_DAYS },
-            { MINUTE, TEN_MINUTES, THIRTY_MINUTES, TWELVE_HOURS, SEVEN_DAYS } };
-
    private String message;
 
    BasicCache<String, Object> userCache;
 
    BasicCache<PostKey, Object> postCache;
+
+   BasicCache<String, Object> timelineCache;
+
+   BasicCache<PostBucketKey, Object> postIndexCache;
    
    LinkedList<DisplayPost> recentPosts = new LinkedList<DisplayPost>();
 
+   private long newestPostId; // high-water mark of recentPosts, only newer posts are fetched on refresh
+
+   private PostsPager myPostsPager = new PostsPager();
+   private PostsPager watchedUserPostsPager = new PostsPager();
+
    @Inject
    private Instance<Authenticator> auth;
 
@@ -94,18 +102,51 @@ public class PostBean implements Serializable {
    @Inject
    private CacheContainerProvider provider;
 
+   @Inject
+   private DisplayPostCache displayPostCache;
+
+   @Inject
+   private RequestMemo memo;
+
+   @Inject
+   private PostCoalescer coalescer;
+
    private TransactionManager tm;
 
    public String sendPost() {
-      Post t = new Post(auth.get().getUsername(), message);
+      sendPosts(Collections.singletonList(message));
+      return null;
+   }
+
+   /*
+    * Sends the messages in batches of chunchun.post.batch.size, each batch in one transaction
+    * with a single update of the user. Returns the number of messages sent before any failure.
+    */
+   public int sendPosts(List<String> messages) {
+      int sent = 0;
       tm = getTransactionManager(getUserCache());
       try {
-         tm.begin();
-         User u = auth.get().getUser();
-         getPostCache().put(t.getKey(), t);
-         u.getPosts().add(t.getKey());
-         getUserCache().replace(auth.get().getUsername(), u);
-         tm.commit();
+         for (List<String> batch : PostBatch.split(messages)) {
+            if (coalescer.isEnabled()) {
+               // committed together with posts of other sessions
+               coalescer.send(auth.get().getUsername(), batch);
+               sent += batch.size();
+               continue;
+            }
+            tm.begin();
+            // changed below, the stored instance must stay as it is should the transaction fail
+            User u = ((User) getUserCache().get(auth.get().getUsername())).copy();
+            List<Post> posts = new ArrayList<Post>(batch.size());
+            for (String text : batch) {
+               Post t = new Post(u.getUsername(), text);
+               t.setOwnerName(u.getName());
+               posts.add(t);
+            }
+            PostBatch.addPosts(provider, u, posts);
+            getUserCache().replace(u.getUsername(), u);
+            tm.commit();
+            sent += batch.size();
+         }
       } catch (Exception e) {
          if (tm != null) {
             try {
@@ -113,121 +154,345 @@ public class PostBean implements Serializable {
             } catch (Exception e1) {
             }
          }
+      } finally {
+         // the user and the timeline changed, don't serve the memoized ones for the rest of request
+         memo.invalidateUser();
+         memo.invalidateRecentPosts();
       }
-      return null;
+      return sent;
    }
 
+   /*
+    * Called several times while rendering a page, loaded at most once per request
+    */
    public List<DisplayPost> getRecentPosts() {
+      if (memo.isRecentPostsLoaded(showedPosts)) {
+         return recentPosts.subList(0, Math.min(showedPosts, recentPosts.size()));
+      }
       if (recentPosts.size() <= INITIAL_POSTS_LIMIT) {
           reloadPosts(INITIAL_POSTS_LIMIT);
       }
       if (showedPosts > loadedPosts) {
-          loadedPosts = showedPosts;
-          reloadPosts(loadedPosts);
+          // continue after the last loaded post instead of reloading all of them
+          loadOlderPosts(Math.max(showedPosts - recentPosts.size(), INCREASE_LOADED_BY));
+          loadedPosts = Math.max(showedPosts, recentPosts.size());
       }
-      return recentPosts.subList(0, showedPosts);
+      memo.setRecentPostsLoaded(showedPosts);
+      return recentPosts.subList(0, Math.min(showedPosts, recentPosts.size()));
    }
-   
+
    /*
     * Reload content of recentPosts list
     */
    private void reloadPosts(int limit) {
-       long now = System.currentTimeMillis();
-       List<String> following = auth.get().getUser().getWatching();
-       long[] ages = chooseRecentPostsStrategy(following.size());
-       // add initial entry (oldest possible one)
-       recentPosts.add(new DisplayPost());
-       // first check only posts newer than 1 hour, then increase maxAge
-       for (int maxAge = 0; maxAge != ages.length; maxAge++) {
-          if (recentPosts.size() >= limit) {
-             break;
-          }
-          // get all people that I'm following
-          for (String username : following) {
-             User u = (User) getUserCache().get(username);
-             CopyOnWriteArrayList<PostKey> postKeys = (CopyOnWriteArrayList<PostKey>) u.getPosts();
-             LinkedList<PostKey> postKeysLinked = new LinkedList<PostKey>();
-             postKeysLinked.addAll(postKeys);
-             Iterator<PostKey> it = postKeysLinked.descendingIterator();
-             // go from newest to oldest post
-             while (it.hasNext()) {
-                PostKey key = it.next();
-                //check only desired sector in the past
-                if (maxAge > 0 && key.getTimeOfPost() >= (now - ages[maxAge - 1])) {
-                   // if we checked this post in the previous sector, move on
-                   continue;
-                } else if (key.getTimeOfPost() < (now - ages[maxAge])) {
-                   // if the post is older than what belongs to this sector, move on
-                   break;
-                }
-                int position = 0;
-                //possibly add the post to newest posts
-                for (DisplayPost recentPost : recentPosts) {
-                   if (key.getTimeOfPost() > recentPost.getTimeOfPost()) {
-                      Post t = (Post) getPostCache().get(key);
-                      if (t != null) {
-                         DisplayPost tw = new DisplayPost(u.getName(), u.getUsername(), t.getMessage(), t.getTimeOfPost());
-                         recentPosts.add(position, tw);
-                         if (recentPosts.size() > limit) {
-                            recentPosts.removeLast();
-                         }
-                      }
-                      break;
-                   }
-                   position++;
-                }
-             }
-          }
-       }
+      String username = auth.get().getUsername();
+      Timeline timeline = (Timeline) getTimelineCache().get(username);
+      List<PostKey> postKeys;
+      if (timeline != null && timeline.canServe(limit)) {
+         postKeys = timeline.getNewest(limit);
+      } else {
+         // (re)build the timeline, load at least as many posts as the timeline can hold
+         int loadLimit = Math.max(limit, TIMELINE_SIZE);
+         long rebuildStart = System.currentTimeMillis() - SEND_DURATION;
+         postKeys = loadWatchedPosts(loadLimit);
+         storeTimeline(username, new Timeline(TIMELINE_SIZE, postKeys, postKeys.size() >= loadLimit), rebuildStart);
+         if (postKeys.size() > limit) postKeys = postKeys.subList(0, limit);
+      }
+      List<DisplayPost> posts = toDisplayPosts(postKeys);
+      recentPosts.clear();
+      recentPosts.addAll(posts);
+      newestPostId = recentPosts.isEmpty() ? 0 : recentPosts.getFirst().getPostId();
+   }
+
+   /*
+    * Appends <code>limit</code> posts older than the last loaded one
+    */
+   private void loadOlderPosts(int limit) {
+      if (recentPosts.isEmpty()) {
+         reloadPosts(limit);
+         return;
+      }
+      DisplayPost last = recentPosts.getLast();
+      recentPosts.addAll(getRecentPostsBefore(last.getKey(), limit));
+   }
+
+   /*
+    * Returns the page of <code>limit</code> posts older than the <code>before</code> cursor,
+    * only that page is looked up no matter how many pages were read before
+    */
+   public List<DisplayPost> getRecentPostsBefore(PostKey before, int limit) {
+      Timeline timeline = (Timeline) getTimelineCache().get(auth.get().getUsername());
+      List<PostKey> postKeys = null;
+      if (timeline != null) {
+         postKeys = timeline.getOlder(before, limit);
+         if (postKeys.size() < limit && timeline.isTruncated()) postKeys = null;
+      }
+      if (postKeys == null) {
+         postKeys = loadWatchedPostsBefore(before, limit);
+      }
+      return toDisplayPosts(postKeys);
+   }
+
+   /*
+    * Builds display posts of the given keys keeping their order, posts shared by other sessions
+    * are reused and the rest is loaded at once. Removed posts are left out.
+    */
+   private List<DisplayPost> toDisplayPosts(List<PostKey> postKeys) {
+      Map<PostKey, DisplayPost> shared = displayPostCache.getAll(postKeys);
+      List<PostKey> notShared = new ArrayList<PostKey>();
+      for (PostKey key : postKeys) {
+         if (!shared.containsKey(key)) notShared.add(key);
+      }
+      Map<PostKey, Object> rawPosts = provider.getAll(getPostCache(), notShared);
+      HashMap<String, User> owners = new HashMap<String, User>();
+      List<DisplayPost> posts = new ArrayList<DisplayPost>(postKeys.size());
+      for (PostKey key : postKeys) {
+         DisplayPost post = shared.get(key);
+         Post t;
+         if (post == null && (t = (Post) rawPosts.get(key)) != null) {
+            User owner = getOwner(t.getOwner(), owners);
+            String name = t.getOwnerName() != null ? t.getOwnerName() : owner.getName();
+            post = new DisplayPost(name, key, t.getMessage(), owner.getAvatarReference());
+            displayPostCache.put(key, post);
+         }
+         if (post != null) {
+            posts.add(post);
+         }
+      }
+      return posts;
+   }
+
+   /*
+    * Put posts newer than what is displayed on top of recentPosts keeping the already built ones
+    */
+   public void refreshRecentPosts() {
+      if (recentPosts.isEmpty()) {
+         reloadPosts(loadedPosts);
+         return;
+      }
+      Timeline timeline = (Timeline) getTimelineCache().get(auth.get().getUsername());
+      List<PostKey> candidateKeys;
+      if (timeline != null && timeline.canServe(loadedPosts)) {
+         candidateKeys = timeline.getNewest(loadedPosts);
+      } else {
+         candidateKeys = loadWatchedPosts(loadedPosts, PostIds.timeOf(newestPostId));
+      }
+      // compared on ids, posts of the same millisecond are told apart, posts of the same id and
+      // another owner may have been displayed already
+      Set<PostKey> displayed = new HashSet<PostKey>();
+      for (DisplayPost post : recentPosts) {
+         if (post.getPostId() < newestPostId) break;
+         displayed.add(post.getKey());
+      }
+      List<PostKey> newKeys = new ArrayList<PostKey>();
+      for (PostKey key : candidateKeys) {
+         if (key.getId() < newestPostId) break;
+         if (!displayed.contains(key)) newKeys.add(key);
+      }
+      recentPosts.addAll(0, toDisplayPosts(newKeys));
+      while (recentPosts.size() > loadedPosts) {
+         recentPosts.removeLast();
+      }
+      newestPostId = recentPosts.getFirst().getPostId();
+   }
+
+   /*
+    * Refreshes recent posts and returns the ones with ids greater than <code>since</code>, the
+    * newest post id of an earlier call
+    */
+   public List<DisplayPost> getRecentPostsSince(long since) {
+      refreshRecentPosts();
+      List<DisplayPost> newer = new LinkedList<DisplayPost>();
+      for (DisplayPost post : recentPosts) {
+         if (post.getPostId() <= since) break;
+         newer.add(post);
+      }
+      return newer;
+   }
+
+   public long getNewestPostId() {
+      return newestPostId;
+   }
+
+   public void resetRecentPosts() {
+      recentPosts.clear();
+      newestPostId = 0;
+      memo.invalidateRecentPosts();
+      loadedPosts = INITIAL_POSTS_LIMIT;
+      showedPosts = 10;
+   }
+
+   /*
+    * Merge posts of all watched users, returns newest <code>limit</code> post keys, newest first
+    */
+   private List<PostKey> loadWatchedPosts(int limit) {
+      return loadWatchedPosts(limit, Long.MIN_VALUE);
+   }
+
+   /*
+    * Same as above but only posts not older than <code>since</code> are looked at
+    */
+   private List<PostKey> loadWatchedPosts(int limit, long since) {
+      List<String> following = new FollowGraph(provider).getFollowing(auth.get().getUsername());
+      if (WatchedPostsTask.isUsable(getUserCache())) {
+         return WatchedPostsTask.loadPosts(getUserCache(), following, limit, since);
+      }
+      List<Iterator<PostKey>> followingPostsIterators = new ArrayList<Iterator<PostKey>>();
+      for (Object u : provider.getAll(getUserCache(), following).values()) {
+         followingPostsIterators.add(new UserPostKeyIterator((User) u, provider));
+      }
+      return PostKeyMerger.merge(followingPostsIterators, limit, since);
+   }
+
+   /*
+    * Merge posts of all watched users older than the <code>before</code> cursor
+    */
+   private List<PostKey> loadWatchedPostsBefore(PostKey before, int limit) {
+      List<String> following = new FollowGraph(provider).getFollowing(auth.get().getUsername());
+      if (WatchedPostsTask.isUsable(getUserCache())) {
+         return WatchedPostsTask.loadPostsBefore(getUserCache(), following, before, limit);
+      }
+      List<Iterator<PostKey>> followingPostsIterators = new ArrayList<Iterator<PostKey>>();
+      for (Object u : provider.getAll(getUserCache(), following).values()) {
+         followingPostsIterators.add(new UserPostKeyIterator((User) u, provider, before));
+      }
+      return PostKeyMerger.merge(followingPostsIterators, limit);
+   }
+
+   /*
+    * Owners are needed for avatars, also for names of posts created before owner name was stored along
+    */
+   private User getOwner(String username, HashMap<String, User> owners) {
+      User owner = owners.get(username);
+      if (owner == null) {
+         owner = provider.getUser(username);
+         owners.put(username, owner);
+      }
+      return owner;
+   }
+
+   /*
+    * Stores a rebuilt timeline. Posts fanned out meanwhile to a timeline stored by someone else
+    * are merged in, so are posts sent since <code>rebuildStart</code> that found no timeline to
+    * go to while the watched posts were loaded.
+    */
+   private void storeTimeline(String username, Timeline timeline, long rebuildStart) {
+      tm = getTransactionManager(getTimelineCache());
+      try {
+         tm.begin();
+         Timeline existing = (Timeline) getTimelineCache().putIfAbsent(username, timeline);
+         if (existing != null) {
+            for (PostKey key : existing.getPosts()) {
+               timeline.add(key);
+            }
+            getTimelineCache().put(username, timeline);
+         }
+         tm.commit();
+
+         // senders committing from now on find the timeline
+         List<PostKey> missed = loadWatchedPosts(TIMELINE_SIZE, rebuildStart);
+         if (!missed.isEmpty()) {
+            tm.begin();
+            Timeline stored = (Timeline) getTimelineCache().get(username);
+            boolean added = false;
+            if (stored != null) {
+               stored = stored.copy();
+               for (PostKey key : missed) {
+                  added = stored.add(key) || added;
+               }
+            }
+            if (added) getTimelineCache().put(username, stored);
+            tm.commit();
+         }
+      } catch (Exception e) {
+         // not fatal, the timeline will be rebuilt next time
+         if (tm != null) {
+            try {
+               tm.rollback();
+            } catch (Exception e1) {
+            }
+         }
+      }
    }
 
    public void morePosts() {
        showedPosts += INCREASE_SHOWED_BY;
+       memo.invalidateRecentPosts();
    }
 
    public void setDisplayedPostsLimit(int limit) {
        showedPosts = limit;
+       memo.invalidateRecentPosts();
    }
    
    public int getDisplayedPostsLimit() {
        return showedPosts;   
    }
    
-   private long[] chooseRecentPostsStrategy(int size) {
-      if (size < LOW_WATCH_LIMIT) {
-         return agesByNumOfWatched[0];
-      } else if (size < MEDIUM_WATCH_LIMIT) {
-         return agesByNumOfWatched[1];
-      } else if (size < HIGH_WATCH_LIMIT) {
-         return agesByNumOfWatched[2];
+   public List<DisplayPost> getMyPosts() {
+      return getUserPostsPage(auth.get().getUser(), myPostsPager, MY_POSTS_PAGE_SIZE);
+   }
+
+   public List<DisplayPost> getWatchedUserPosts() {
+      return getUserPostsPage(userBean.getWatchedUser(), watchedUserPostsPager, WATCHED_USER_POSTS_PAGE_SIZE);
+   }
+
+   public PostsPager getMyPostsPager() {
+      return myPostsPager;
+   }
+
+   public PostsPager getWatchedUserPostsPager() {
+      return watchedUserPostsPager;
+   }
+
+   /*
+    * Loads only the page the pager points at, one more key is looked at to know if there are older posts
+    */
+   private List<DisplayPost> getUserPostsPage(User user, PostsPager pager, int pageSize) {
+      List<PostKey> postKeys = getUserPostKeys(user, pager.getCursor(user.getUsername()), pageSize + 1);
+      if (postKeys.size() > pageSize) {
+         postKeys = postKeys.subList(0, pageSize);
+         pager.setNextCursor(postKeys.get(pageSize - 1));
       } else {
-         return agesByNumOfWatched[3];
+         pager.setNextCursor(null);
       }
+      return toUserDisplayPosts(user, postKeys);
    }
 
-   public List<DisplayPost> getMyPosts() {
-      LinkedList<DisplayPost> myPosts = new LinkedList<DisplayPost>();
-      List<PostKey> myPostKeys = auth.get().getUser().getPosts();
-      for (PostKey key : myPostKeys) {
-         Post t = (Post) getPostCache().get(key);
-         if (t != null) {
-            DisplayPost dispPost = new DisplayPost(auth.get().getUser().getName(), auth.get()
-              .getUser().getUsername(), t.getMessage(), t.getTimeOfPost());
-            myPosts.addFirst(dispPost);
-         }
+   /*
+    * Returns at most <code>limit</code> posts of the user older than the <code>before</code>
+    * cursor (or the newest ones for null cursor), newest first
+    */
+   public List<DisplayPost> getUserPosts(User user, PostKey before, int limit) {
+      return toUserDisplayPosts(user, getUserPostKeys(user, before, limit));
+   }
+
+   private List<PostKey> getUserPostKeys(User user, PostKey before, int limit) {
+      List<PostKey> postKeys = new ArrayList<PostKey>(limit);
+      UserPostKeyIterator it = new UserPostKeyIterator(user, provider, before);
+      while (postKeys.size() < limit && it.hasNext()) {
+         postKeys.add(it.next());
       }
-      return myPosts;
+      return postKeys;
    }
 
-   public List<DisplayPost> getWatchedUserPosts() {
-      LinkedList<DisplayPost> userPosts = new LinkedList<DisplayPost>();
-      List<PostKey> myPostKeys = userBean.getWatchedUser().getPosts();
-      for (PostKey key : myPostKeys) {
-         Post t = (Post) getPostCache().get(key);
-         if (t != null) {
-            DisplayPost dispPost = new DisplayPost(userBean.getWatchedUser().getName(), userBean
-                  .getWatchedUser().getUsername(), t.getMessage(), t.getTimeOfPost());
-            userPosts.addFirst(dispPost);
+   private List<DisplayPost> toUserDisplayPosts(User user, List<PostKey> postKeys) {
+      Map<PostKey, DisplayPost> shared = displayPostCache.getAll(postKeys);
+      List<PostKey> notShared = new ArrayList<PostKey>();
+      for (PostKey key : postKeys) {
+         if (!shared.containsKey(key)) notShared.add(key);
+      }
+      Map<PostKey, Object> rawPosts = provider.getAll(getPostCache(), notShared);
+      List<DisplayPost> userPosts = new ArrayList<DisplayPost>(postKeys.size());
+      for (PostKey key : postKeys) {
+         DisplayPost post = shared.get(key);
+         Post t;
+         if (post == null && (t = (Post) rawPosts.get(key)) != null) {
+            post = new DisplayPost(user.getName(), key, t.getMessage(), user.getAvatarReference());
+            displayPostCache.put(key, post);
+         }
+         if (post != null) {
+            userPosts.add(post);
          }
       }
       return userPosts;
@@ -257,6 +522,22 @@ public class PostBean implements Serializable {
       }
    }
 
+   private BasicCache<String, Object> getTimelineCache() {
+      if (timelineCache != null) {
+         return timelineCache;
+      } else {
+         return provider.getCacheContainer().getCache("timelineCache");
+      }
+   }
+
+   private BasicCache<PostBucketKey, Object> getPostIndexCache() {
+      if (postIndexCache != null) {
+         return postIndexCache;
+      } else {
+         return provider.getCacheContainer().getCache(UserPostIndex.CACHE_NAME);
+      }
+   }
+
    private TransactionManager getTransactionManager(BasicCache<?, ?> cache) {
        TransactionManager tm = ((CacheImpl) cache).getAdvancedCache().getTransactionManager();
        return tm;
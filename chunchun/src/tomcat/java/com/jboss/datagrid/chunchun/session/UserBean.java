@@ -21,14 +21,12 @@
  */
 package com.jboss.datagrid.chunchun.session;
 
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.inject.Instance;
-import javax.imageio.ImageIO;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.transaction.TransactionManager;
@@ -36,6 +34,7 @@ import javax.transaction.TransactionManager;
 import org.infinispan.CacheImpl;
 import org.infinispan.api.BasicCache;
 import com.jboss.datagrid.chunchun.model.User;
+import com.jboss.datagrid.chunchun.util.FollowGraph;
 
 /**
  * Handles operations with users (retrieving users from a cache, getting 
@@ -67,35 +66,20 @@ public class UserBean implements Serializable {
 
    private TransactionManager tm;
    
-   public void showUserImage(OutputStream out, Object data) {
-      try {
-         User u = (User) getUserCache().get((String) data);
-         ImageIO.write(u.getAvatar(), "jpg", out);
-      } catch (Exception e) {
-         throw new RuntimeException("Unable to load data for image", e);
-      }
-   }
-   
    public List<User> getWatching() {
-      List<User> returnWatching = new LinkedList<User>();
-      List<String> watching = watchedUser.getWatching();
-      for (String username : watching) {
-         if (username != null) {
-            User u = (User) getUserCache().get(username);
-            returnWatching.add(u);
-         }
-      }
-      return returnWatching;
+      return getUsers(getFollowGraph().getFollowing(watchedUser.getUsername()));
    }
 
    public List<User> getWatchers() {
-      List<User> returnWatchers = new LinkedList<User>();
-      List<String> watchers = watchedUser.getWatchers();
-      for (String username : watchers) {
-         User u = (User) getUserCache().get(username);
-         returnWatchers.add(u);
+      return getUsers(getFollowGraph().getFollowers(watchedUser.getUsername()));
+   }
+
+   private List<User> getUsers(List<String> usernames) {
+      List<User> users = new LinkedList<User>();
+      for (Object u : provider.getAll(getUserCache(), usernames).values()) {
+         users.add((User) u);
       }
-      return returnWatchers;
+      return users;
    }
 
    public String showUser(User user) {
@@ -104,7 +88,7 @@ public class UserBean implements Serializable {
    }
 
    public String showUser(DisplayPost post) {
-      this.watchedUser = (User) getUserCache().get(post.getOwnerUsername());
+      this.watchedUser = provider.getUser(post.getOwnerUsername());
       return "userdetails";
    }
 
@@ -116,6 +100,14 @@ public class UserBean implements Serializable {
       }
    }
 
+   private FollowGraph getFollowGraph() {
+      return new FollowGraph(provider);
+   }
+
+   private BasicCache<String, Object> getTimelineCache() {
+      return provider.getCacheContainer().getCache("timelineCache");
+   }
+
    public User getWatchedUser() {
       return watchedUser;
    }
@@ -126,18 +118,16 @@ public class UserBean implements Serializable {
    }
 
    public boolean isWatchedByMe(User u) {
-      List<String> watching = auth.get().getUser().getWatching();
-      return watching.contains(u.getUsername()) ? true : false;
+      return getFollowGraph().isFollowing(auth.get().getUsername(), u.getUsername());
    }
 
    public String watchUser(User user) {
-      User me = this.auth.get().getUser();
+      String me = this.auth.get().getUsername();
       tm = getTransactionManager(getUserCache());
-      List<String> watching = me.getWatching();
-      watching.add(user.getUsername());
       try {
          tm.begin();
-         getUserCache().replace(me.getUsername(), me);
+         getFollowGraph().follow(me, user.getUsername());
+         getTimelineCache().remove(me); // rebuilt on next read
          tm.commit();
       } catch (Exception e) {
          if (tm != null) {
@@ -151,13 +141,12 @@ public class UserBean implements Serializable {
    }
    
    public String stopWatchingUser(User user) {
-      User me = this.auth.get().getUser();
+      String me = this.auth.get().getUsername();
       tm = getTransactionManager(getUserCache());
-      List<String> watching = me.getWatching();
-      watching.remove(user.getUsername());
       try {
          tm.begin();
-         getUserCache().replace(me.getUsername(), me);
+         getFollowGraph().unfollow(me, user.getUsername());
+         getTimelineCache().remove(me); // rebuilt on next read
          tm.commit();
       } catch (Exception e) {
          if (tm != null) {